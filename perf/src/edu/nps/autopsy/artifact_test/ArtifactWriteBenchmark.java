@@ -0,0 +1,113 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.datamodel.BlackboardArtifact;
+import org.sleuthkit.datamodel.BlackboardAttribute;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Artifacts written per second to a temporary case database: one
+ * newArtifact + addAttributes per artifact as the module used to, through a
+ * BlackboardBatchWriter, and both on several threads at once.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ArtifactWriteBenchmark {
+
+    private static final String MODULE_NAME = ArtifactTestIngestModuleFactory.getModuleName();
+
+    /**
+     * A batch writer per benchmark thread, closed at the end of each
+     * iteration so that every added artifact is written inside it.
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+
+        @Param({"100", "1000"})
+        public int batchSize;
+
+        BlackboardBatchWriter writer;
+
+        @Setup(Level.Iteration)
+        public void open(BenchmarkCase benchmarkCase) {
+            writer = new BlackboardBatchWriter(benchmarkCase.temporaryCase.getSleuthkitCase(),
+                    benchmarkCase.artifactTypeID, batchSize, Long.MAX_VALUE,
+                    Logger.getLogger(ArtifactWriteBenchmark.class.getName()), new IngestJobMetrics(0),
+                    WriteScheduler.forCase(benchmarkCase.temporaryCase.getSleuthkitCase())
+                            .openJob(0, WriteScheduler.DEFAULT_PRIORITY));
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws TskCoreException {
+            writer.close();
+        }
+    }
+
+    @Benchmark
+    public BlackboardArtifact single(BenchmarkCase benchmarkCase) throws TskCoreException {
+        return write(benchmarkCase);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public BlackboardArtifact singleThreads(BenchmarkCase benchmarkCase) throws TskCoreException {
+        return write(benchmarkCase);
+    }
+
+    @Benchmark
+    public void batched(BenchmarkCase benchmarkCase, Writer writer) throws TskCoreException {
+        writer.writer.add(benchmarkCase.temporaryCase.getImage(), attributes(benchmarkCase));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void batchedThreads(BenchmarkCase benchmarkCase, Writer writer) throws TskCoreException {
+        writer.writer.add(benchmarkCase.temporaryCase.getImage(), attributes(benchmarkCase));
+    }
+
+    private static BlackboardArtifact write(BenchmarkCase benchmarkCase) throws TskCoreException {
+        BlackboardArtifact blackboardArtifact = benchmarkCase.temporaryCase.getImage().newArtifact(benchmarkCase.artifactTypeID);
+        blackboardArtifact.addAttributes(attributes(benchmarkCase));
+        return blackboardArtifact;
+    }
+
+    private static Collection<BlackboardAttribute> attributes(BenchmarkCase benchmarkCase) {
+        return Collections.singletonList(new BlackboardAttribute(benchmarkCase.attributeTypeID, MODULE_NAME, "hello attribute"));
+    }
+}
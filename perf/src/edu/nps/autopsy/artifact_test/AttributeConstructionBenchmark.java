@@ -0,0 +1,98 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sleuthkit.datamodel.BlackboardAttribute;
+
+/**
+ * Cost of building the attributes of an artifact the way the generator
+ * threads do, from a compiled value template into a reused builder: one at a
+ * time, a batch of them, and on several threads at once.  The templates
+ * cover the default one, {now} formatted once per second, and {now} with a
+ * sub-second format, formatted every time.  No database is involved.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AttributeConstructionBenchmark {
+
+    private static final int BATCH_SIZE = 500;
+    private static final int ATTRIBUTE_TYPE_ID = 10000;
+    private static final String MODULE_NAME = ArtifactTestIngestModuleFactory.getModuleName();
+
+    @Param({"{name} at {time}|MM-dd-yy-HH-mm-ss", "{name} at {now}|MM-dd-yy-HH-mm-ss",
+        "{name} at {now}|HH:mm:ss.SSS"})
+    public String template;
+
+    private ValueTemplate valueTemplate;
+    private final StringBuilder value = new StringBuilder();
+    private int index;
+
+    @Setup
+    public void setUp() {
+        String[] parts = template.split("\\|");
+        valueTemplate = ValueTemplate.compile(parts[0], parts[1], System.currentTimeMillis(), 0);
+    }
+
+    @Benchmark
+    public Collection<BlackboardAttribute> single() {
+        return attributes();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Collection<Collection<BlackboardAttribute>> batched() {
+        Collection<Collection<BlackboardAttribute>> batch = new ArrayList<Collection<BlackboardAttribute>>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(attributes());
+        }
+        return batch;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Collection<BlackboardAttribute> singleThreads() {
+        return attributes();
+    }
+
+    private Collection<BlackboardAttribute> attributes() {
+        Collection<BlackboardAttribute> attributes = new ArrayList<BlackboardAttribute>();
+        value.setLength(0);
+        attributes.add(new BlackboardAttribute(ATTRIBUTE_TYPE_ID, MODULE_NAME,
+                valueTemplate.appendTo(value, index++, 0).toString()));
+        return attributes;
+    }
+}
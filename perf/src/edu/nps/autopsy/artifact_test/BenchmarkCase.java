@@ -0,0 +1,54 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.io.IOException;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * JMH state holding a temporary case and the module's blackboard types in it,
+ * shared by all benchmark threads of a trial.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkCase {
+
+    @Param({"1048576"})
+    public long imageSize;
+
+    TemporaryCase temporaryCase;
+    int artifactTypeID;
+    int attributeTypeID;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException, TskCoreException {
+        temporaryCase = TemporaryCase.create(imageSize);
+        ArtifactTypeRegistry.Types types = ArtifactTypeRegistry.getTypes(temporaryCase.getSleuthkitCase());
+        artifactTypeID = types.getArtifactTypeID();
+        attributeTypeID = types.getAttributeTypeID();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        temporaryCase.delete();
+    }
+}
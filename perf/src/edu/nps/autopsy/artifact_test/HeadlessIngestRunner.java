@@ -0,0 +1,499 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.ingest.IngestMessage;
+import org.sleuthkit.autopsy.ingest.IngestModule.IngestModuleException;
+import org.sleuthkit.autopsy.ingest.IngestModule.ProcessResult;
+import org.sleuthkit.datamodel.CaseDbQuery;
+import org.sleuthkit.datamodel.Image;
+import org.sleuthkit.datamodel.SleuthkitCase;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Runs the data source ingest module end to end outside of Autopsy and writes
+ * a JSON report of its throughput, for tracking performance across releases.
+ * <p>
+ * The runner writes a synthetic raw image, creates a case database in a
+ * temporary directory, adds the image once per job, and runs the jobs, a
+ * number of them at a time.  Each job gets a module from
+ * {@link ArtifactTestIngestModuleFactory} and drives it through startUp and
+ * process, the whole life of a data source ingest module.  Autopsy's ingest
+ * job context and progress bar cannot be made outside of Autopsy, so the
+ * module runs in an {@link IngestJobEnvironment} of the runner's own.
+ * <p>
+ * Options are name=value arguments:
+ * <pre>
+ * imageSize=64m        size of the synthetic image (k, m and g suffixes)
+ * jobs=1               number of ingest jobs, one data source each
+ * concurrentJobs=1     number of jobs run at a time
+ * artifacts=10000      artifacts per data source
+ * attributes=1         attributes per artifact
+ * payload=0            characters each attribute value is padded to
+ * concurrency=1        generator threads per job
+ * batchSize=500        artifacts written together
+ * writeBehind=false    write behind the ingest thread
+ * skipDuplicates=false skip artifacts already in the case
+ * scan=false           scan the image for the marker planted in it
+ * hash=false           hash the image into a Merkle tree
+ * blobThreshold=0      move values from this length to the blob store
+ * seed=1               seed of the image contents
+ * report=artifact-test-report.json
+ * keep=false           keep the temporary case directory
+ * </pre>
+ * The exit status is 1 if any job failed.
+ */
+final class HeadlessIngestRunner {
+
+    private static final String moduleName = ArtifactTestIngestModuleFactory.getModuleName();
+
+    // planted every MARKER_INTERVAL bytes of the synthetic image
+    private static final byte[] MARKER = "ArtifactTestMarker".getBytes(StandardCharsets.US_ASCII);
+    private static final int MARKER_INTERVAL = 64 * 1024;
+
+    private static final ArtifactTestIngestModule.Progress NO_PROGRESS = new ArtifactTestIngestModule.Progress() {
+        @Override
+        public void switchToDeterminate(int workUnits) {
+        }
+
+        @Override
+        public void progress(int workUnits) {
+        }
+    };
+
+    private final Map<String, String> options;
+    private final ArtifactTestIngestModuleIngestJobSettings settings;
+    private final long imageSize;
+    private final int jobCount;
+    private final int concurrentJobCount;
+
+    // heap and garbage collection, while the jobs run
+    private final AtomicLong heapHighWater = new AtomicLong();
+    private final AtomicLong maxPauseMillis = new AtomicLong();
+    private final AtomicLong pauseCount = new AtomicLong();
+
+    private HeadlessIngestRunner(Map<String, String> options) {
+        this.options = options;
+        this.imageSize = parseSize(option("imageSize", "64m"));
+        this.jobCount = Integer.parseInt(option("jobs", "1"));
+        this.concurrentJobCount = Integer.parseInt(option("concurrentJobs", "1"));
+
+        settings = (ArtifactTestIngestModuleIngestJobSettings) new ArtifactTestIngestModuleFactory().getDefaultIngestJobSettings();
+        settings.setArtifactsPerDataSource(Integer.parseInt(option("artifacts", "10000")));
+        settings.setAttributesPerArtifact(Integer.parseInt(option("attributes", "1")));
+        settings.setPayloadSize(Integer.parseInt(option("payload", "0")));
+        settings.setConcurrency(Integer.parseInt(option("concurrency", "1")));
+        settings.setBatchSize(Integer.parseInt(option("batchSize", "500")));
+        settings.setWriteBehind(Boolean.parseBoolean(option("writeBehind", "false")));
+        settings.setSkipDuplicates(Boolean.parseBoolean(option("skipDuplicates", "false")));
+        if (Boolean.parseBoolean(option("scan", "false"))) {
+            settings.setSignatures(MerkleHasher.toHex(MARKER));
+        }
+        settings.setHashImage(Boolean.parseBoolean(option("hash", "false")));
+        settings.setBlobThreshold(Integer.parseInt(option("blobThreshold", "0")));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals <= 0) {
+                System.err.println("Expected name=value, got " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        System.exit(new HeadlessIngestRunner(options).run() ? 0 : 1);
+    }
+
+    // run the jobs and write the report; true if every job succeeded
+    private boolean run() throws IOException, TskCoreException, InterruptedException {
+        Path directory = Files.createTempDirectory("artifact-test-harness-");
+        File imageFile = directory.resolve("image.raw").toFile();
+        writeSyntheticImage(imageFile.toPath(), imageSize, Long.parseLong(option("seed", "1")));
+        TemporaryCase temporaryCase = TemporaryCase.create(directory, imageFile);
+        try {
+            List<Image> images = new ArrayList<Image>();
+            images.add(temporaryCase.getImage());
+            for (int i = 1; i < jobCount; i++) {
+                images.add(temporaryCase.addImage(imageFile));
+            }
+            SleuthkitCase sleuthkitCase = temporaryCase.getSleuthkitCase();
+            ArtifactTypeRegistry.Types types = ArtifactTypeRegistry.getTypes(sleuthkitCase);
+            long artifactsBefore = count(sleuthkitCase, "blackboard_artifacts", "artifact_type_id", types.getArtifactTypeID());
+            long attributesBefore = count(sleuthkitCase, "blackboard_attributes", "attribute_type_id", types.getAttributeTypeID());
+
+            List<JobReport> jobReports = Collections.synchronizedList(new ArrayList<JobReport>());
+            Map<String, long[]> gcBefore = collectorTotals();
+            startWatchingMemory();
+            long startNanos = System.nanoTime();
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, concurrentJobCount));
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < jobCount; i++) {
+                futures.add(executor.submit(newJob(i + 1, temporaryCase, images.get(i), jobReports)));
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(20, TimeUnit.MILLISECONDS)) {
+                sampleHeap();
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    throw new IllegalStateException("Ingest job failed to run", ex.getCause());
+                }
+            }
+            WriteBehindQueue.stopAll();
+            BlobStore.closeAll();
+            long wallNanos = System.nanoTime() - startNanos;
+            sampleHeap();
+
+            long artifacts = count(sleuthkitCase, "blackboard_artifacts", "artifact_type_id", types.getArtifactTypeID()) - artifactsBefore;
+            long attributes = count(sleuthkitCase, "blackboard_attributes", "attribute_type_id", types.getAttributeTypeID()) - attributesBefore;
+            Path report = Paths.get(option("report", "artifact-test-report.json"));
+            writeReport(report, wallNanos, artifacts, attributes, gcBefore, jobReports);
+            System.out.println("Wrote " + report.toAbsolutePath());
+
+            boolean succeeded = true;
+            for (JobReport jobReport : jobReports) {
+                succeeded &= "OK".equals(jobReport.result);
+            }
+            return succeeded;
+        } finally {
+            if (Boolean.parseBoolean(option("keep", "false"))) {
+                temporaryCase.getSleuthkitCase().close();
+                System.out.println("Kept " + directory);
+            } else {
+                temporaryCase.delete();
+            }
+        }
+    }
+
+    // one ingest job over one data source
+    private Runnable newJob(final long jobId, final TemporaryCase temporaryCase, final Image image,
+            final List<JobReport> jobReports) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                JobReport jobReport = new JobReport(jobId, image.getId());
+                HarnessEnvironment environment = new HarnessEnvironment(jobId, temporaryCase, jobReport);
+                long startNanos = System.nanoTime();
+                try {
+                    ArtifactTestIngestModule module = (ArtifactTestIngestModule) new ArtifactTestIngestModuleFactory()
+                            .createDataSourceIngestModule(settings);
+                    module.startUp(environment);
+                    jobReport.result = module.process(image, NO_PROGRESS).toString();
+                } catch (IngestModuleException ex) {
+                    jobReport.result = ProcessResult.ERROR + ": " + ex.getMessage();
+                }
+                jobReport.seconds = (System.nanoTime() - startNanos) / 1.0e9;
+                jobReports.add(jobReport);
+            }
+        };
+    }
+
+    // pseudo-random bytes with the marker planted at a fixed interval, so
+    // that the image neither compresses away nor has nothing to find
+    private static void writeSyntheticImage(Path file, long size, long seed) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+        long state = seed == 0 ? 0x9E3779B97F4A7C15L : seed;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long offset = 0;
+            while (offset < size) {
+                buffer.clear();
+                while (buffer.remaining() >= 8) {
+                    // xorshift64
+                    state ^= state << 13;
+                    state ^= state >>> 7;
+                    state ^= state << 17;
+                    buffer.putLong(state);
+                }
+                for (int i = 0; i + MARKER.length <= buffer.capacity(); i += MARKER_INTERVAL) {
+                    for (int j = 0; j < MARKER.length; j++) {
+                        buffer.put(i + j, MARKER[j]);
+                    }
+                }
+                buffer.flip();
+                buffer.limit((int) Math.min(buffer.limit(), size - offset));
+                while (buffer.hasRemaining()) {
+                    offset += channel.write(buffer, offset);
+                }
+            }
+        }
+    }
+
+    private static long count(SleuthkitCase sleuthkitCase, String table, String column, int typeID)
+            throws TskCoreException {
+        try (CaseDbQuery query = sleuthkitCase.executeQuery(
+                "SELECT COUNT(*) AS count FROM " + table + " WHERE " + column + " = " + typeID)) {
+            ResultSet resultSet = query.getResultSet();
+            return resultSet.next() ? resultSet.getLong("count") : 0;
+        } catch (SQLException ex) {
+            throw new TskCoreException("Failed to count the rows of " + table, ex);
+        }
+    }
+
+    // record each collection pause and the heap in use when it started, which
+    // is where the heap peaks
+    private void startWatchingMemory() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(collector instanceof NotificationEmitter)) {
+                continue;
+            }
+            ((NotificationEmitter) collector).addNotificationListener(new NotificationListener() {
+                @Override
+                public void handleNotification(Notification notification, Object handback) {
+                    if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                        return;
+                    }
+                    GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from(
+                            (CompositeData) notification.getUserData());
+                    pauseCount.incrementAndGet();
+                    updateMax(maxPauseMillis, info.getGcInfo().getDuration());
+                    long used = 0;
+                    for (MemoryUsage usage : info.getGcInfo().getMemoryUsageBeforeGc().values()) {
+                        used += usage.getUsed();
+                    }
+                    updateMax(heapHighWater, used);
+                }
+            }, null, null);
+        }
+    }
+
+    private void sampleHeap() {
+        updateMax(heapHighWater, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+        }
+    }
+
+    // collection count and time by collector
+    private static Map<String, long[]> collectorTotals() {
+        Map<String, long[]> totals = new LinkedHashMap<String, long[]>();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals.put(collector.getName(), new long[]{collector.getCollectionCount(), collector.getCollectionTime()});
+        }
+        return totals;
+    }
+
+    private void writeReport(Path report, long wallNanos, long artifacts, long attributes,
+            Map<String, long[]> gcBefore, List<JobReport> jobReports) throws IOException {
+        double seconds = Math.max(1, wallNanos) / 1.0e9;
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        field(json, 1, "moduleVersion", quote(ArtifactTestIngestModuleFactory.getModuleVersion())).append(",\n");
+        field(json, 1, "javaVersion", quote(System.getProperty("java.version"))).append(",\n");
+        field(json, 1, "processors", Runtime.getRuntime().availableProcessors()).append(",\n");
+        json.append("  \"options\": {");
+        String separator = "";
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            json.append(separator).append(quote(option.getKey())).append(": ").append(quote(option.getValue()));
+            separator = ", ";
+        }
+        json.append("},\n");
+        field(json, 1, "imageSize", imageSize).append(",\n");
+        field(json, 1, "jobs", jobCount).append(",\n");
+        field(json, 1, "concurrentJobs", concurrentJobCount).append(",\n");
+        field(json, 1, "wallSeconds", String.format("%.3f", seconds)).append(",\n");
+        field(json, 1, "artifacts", artifacts).append(",\n");
+        field(json, 1, "attributes", attributes).append(",\n");
+        field(json, 1, "artifactsPerSecond", String.format("%.1f", artifacts / seconds)).append(",\n");
+        field(json, 1, "attributesPerSecond", String.format("%.1f", attributes / seconds)).append(",\n");
+        field(json, 1, "heapHighWaterBytes", heapHighWater.get()).append(",\n");
+        field(json, 1, "heapMaxBytes", Runtime.getRuntime().maxMemory()).append(",\n");
+
+        json.append("  \"gc\": {\n");
+        field(json, 2, "pauses", pauseCount.get()).append(",\n");
+        field(json, 2, "maxPauseMillis", maxPauseMillis.get()).append(",\n");
+        json.append("    \"collectors\": [");
+        separator = "";
+        for (Map.Entry<String, long[]> collector : collectorTotals().entrySet()) {
+            long[] before = gcBefore.containsKey(collector.getKey()) ? gcBefore.get(collector.getKey()) : new long[2];
+            json.append(separator).append("\n      {\"name\": ").append(quote(collector.getKey()))
+                    .append(", \"collections\": ").append(collector.getValue()[0] - before[0])
+                    .append(", \"millis\": ").append(collector.getValue()[1] - before[1]).append('}');
+            separator = ",";
+        }
+        json.append("\n    ]\n  },\n");
+
+        json.append("  \"jobResults\": [");
+        separator = "";
+        for (JobReport jobReport : jobReports) {
+            json.append(separator).append("\n    {\"jobId\": ").append(jobReport.jobId)
+                    .append(", \"dataSourceId\": ").append(jobReport.dataSourceID)
+                    .append(", \"result\": ").append(quote(jobReport.result))
+                    .append(", \"seconds\": ").append(String.format("%.3f", jobReport.seconds))
+                    .append(", \"messages\": [");
+            String messageSeparator = "";
+            for (String message : jobReport.messages) {
+                json.append(messageSeparator).append(quote(message));
+                messageSeparator = ", ";
+            }
+            json.append("]}");
+            separator = ",";
+        }
+        json.append("\n  ]\n}\n");
+
+        if (report.getParent() != null) {
+            Files.createDirectories(report.getParent());
+        }
+        try (Writer writer = Files.newBufferedWriter(report, StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        }
+    }
+
+    private static StringBuilder field(StringBuilder json, int depth, String name, Object value) {
+        for (int i = 0; i < depth; i++) {
+            json.append("  ");
+        }
+        return json.append(quote(name)).append(": ").append(value);
+    }
+
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private String option(String name, String defaultValue) {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    // a byte count with an optional k, m or g suffix
+    private static long parseSize(String size) {
+        String lower = size.trim().toLowerCase();
+        long multiplier = 1;
+        if (lower.endsWith("k")) {
+            multiplier = 1024L;
+        } else if (lower.endsWith("m")) {
+            multiplier = 1024L * 1024;
+        } else if (lower.endsWith("g")) {
+            multiplier = 1024L * 1024 * 1024;
+        }
+        if (multiplier != 1) {
+            lower = lower.substring(0, lower.length() - 1);
+        }
+        return Long.parseLong(lower) * multiplier;
+    }
+
+    // what one job did
+    private static final class JobReport {
+
+        private final long jobId;
+        private final long dataSourceID;
+        private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+        private volatile String result = "NOT RUN";
+        private volatile double seconds;
+
+        JobReport(long jobId, long dataSourceID) {
+            this.jobId = jobId;
+            this.dataSourceID = dataSourceID;
+        }
+    }
+
+    // a job of the runner, in the temporary case; inbox messages go to the
+    // job report
+    private static final class HarnessEnvironment implements IngestJobEnvironment {
+
+        private final long jobId;
+        private final TemporaryCase temporaryCase;
+        private final JobReport jobReport;
+
+        HarnessEnvironment(long jobId, TemporaryCase temporaryCase, JobReport jobReport) {
+            this.jobId = jobId;
+            this.temporaryCase = temporaryCase;
+            this.jobReport = jobReport;
+        }
+
+        @Override
+        public long getJobId() {
+            return jobId;
+        }
+
+        @Override
+        public boolean isJobCancelled() {
+            return false;
+        }
+
+        @Override
+        public SleuthkitCase getSleuthkitCase() {
+            return temporaryCase.getSleuthkitCase();
+        }
+
+        @Override
+        public Path getModuleOutputDirectory() {
+            return temporaryCase.getDirectory().resolve("ModuleOutput")
+                    .resolve(ArtifactTestIngestModuleFactory.getModuleOutputDirectoryName());
+        }
+
+        @Override
+        public Logger getLogger() {
+            return Logger.getLogger(moduleName);
+        }
+
+        @Override
+        public void postMessage(IngestMessage message) {
+            jobReport.messages.add(message.getSubject());
+        }
+    }
+}
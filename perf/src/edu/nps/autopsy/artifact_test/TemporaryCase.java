@@ -0,0 +1,139 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import org.sleuthkit.datamodel.Image;
+import org.sleuthkit.datamodel.SleuthkitCase;
+import org.sleuthkit.datamodel.SleuthkitJNI.CaseDbHandle.AddImageProcess;
+import org.sleuthkit.datamodel.TskCoreException;
+import org.sleuthkit.datamodel.TskDataException;
+
+/**
+ * A case database in a temporary directory holding one raw image, for
+ * exercising the module outside of Autopsy.  Needs the SleuthKit native
+ * library on java.library.path.
+ */
+final class TemporaryCase {
+
+    private final Path directory;
+    private final SleuthkitCase sleuthkitCase;
+    private final Image image;
+
+    private TemporaryCase(Path directory, SleuthkitCase sleuthkitCase, Image image) {
+        this.directory = directory;
+        this.sleuthkitCase = sleuthkitCase;
+        this.image = image;
+    }
+
+    /**
+     * Creates a case database in a new temporary directory and adds a raw
+     * image of zeros to it.
+     *
+     * @param imageSize The size of the image in bytes.
+     * @return The case.
+     * @throws IOException If the directory or image cannot be written.
+     * @throws TskCoreException If the case database cannot be created.
+     */
+    static TemporaryCase create(long imageSize) throws IOException, TskCoreException {
+        Path directory = Files.createTempDirectory("artifact-test-");
+        File imageFile = directory.resolve("image.raw").toFile();
+        RandomAccessFile raw = new RandomAccessFile(imageFile, "rw");
+        try {
+            raw.setLength(imageSize);
+        } finally {
+            raw.close();
+        }
+        return create(directory, imageFile);
+    }
+
+    /**
+     * Creates a case database in a directory and adds a raw image to it.
+     *
+     * @param directory The directory of the case database.
+     * @param imageFile The raw image.
+     * @return The case.
+     * @throws TskCoreException If the case database cannot be created or the
+     * image cannot be added.
+     */
+    static TemporaryCase create(Path directory, File imageFile) throws TskCoreException {
+        SleuthkitCase sleuthkitCase = SleuthkitCase.newCase(directory.resolve("autopsy.db").toString());
+        return new TemporaryCase(directory, sleuthkitCase, addImage(sleuthkitCase, imageFile));
+    }
+
+    /**
+     * Adds a raw image to the case again, as a data source of its own.
+     *
+     * @param imageFile The raw image.
+     * @return The new data source.
+     * @throws TskCoreException If the image cannot be added.
+     */
+    Image addImage(File imageFile) throws TskCoreException {
+        return addImage(sleuthkitCase, imageFile);
+    }
+
+    private static Image addImage(SleuthkitCase sleuthkitCase, File imageFile) throws TskCoreException {
+        AddImageProcess addImageProcess = sleuthkitCase.makeAddImageProcess("", false, false);
+        try {
+            addImageProcess.run(new String[]{imageFile.getPath()});
+        } catch (TskDataException ex) {
+            // non-critical: the image has no file system, it is added anyway
+        }
+        return (Image) sleuthkitCase.getContentById(addImageProcess.commit());
+    }
+
+    SleuthkitCase getSleuthkitCase() {
+        return sleuthkitCase;
+    }
+
+    Image getImage() {
+        return image;
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Closes the case database and deletes the temporary directory.
+     *
+     * @throws IOException If the directory cannot be deleted.
+     */
+    void delete() throws IOException {
+        sleuthkitCase.close();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,71 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sleuthkit.datamodel.SleuthkitCase;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Cost of getting the ARTIFACT_TEST and ATTRIBUTE_TEST type IDs at ingest job
+ * start up: from the per-case registry, and from the case database as the
+ * module used to.  A type lookup has no batched form; every job does exactly
+ * one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TypeLookupBenchmark {
+
+    @Benchmark
+    public ArtifactTypeRegistry.Types registry(BenchmarkCase benchmarkCase) throws TskCoreException {
+        return ArtifactTypeRegistry.getTypes(benchmarkCase.temporaryCase.getSleuthkitCase());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ArtifactTypeRegistry.Types registryThreads(BenchmarkCase benchmarkCase) throws TskCoreException {
+        return ArtifactTypeRegistry.getTypes(benchmarkCase.temporaryCase.getSleuthkitCase());
+    }
+
+    @Benchmark
+    public void database(BenchmarkCase benchmarkCase, Blackhole blackhole) throws TskCoreException {
+        lookUp(benchmarkCase.temporaryCase.getSleuthkitCase(), blackhole);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void databaseThreads(BenchmarkCase benchmarkCase, Blackhole blackhole) throws TskCoreException {
+        lookUp(benchmarkCase.temporaryCase.getSleuthkitCase(), blackhole);
+    }
+
+    private static void lookUp(SleuthkitCase sleuthkitCase, Blackhole blackhole) throws TskCoreException {
+        blackhole.consume(sleuthkitCase.getArtifactTypeID(ArtifactTypeRegistry.ARTIFACT_TYPE_NAME));
+        blackhole.consume(sleuthkitCase.getAttrTypeID(ArtifactTypeRegistry.ATTRIBUTE_TYPE_NAME));
+    }
+}
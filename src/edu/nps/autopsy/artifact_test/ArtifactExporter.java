@@ -0,0 +1,331 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import org.sleuthkit.datamodel.CaseDbQuery;
+import org.sleuthkit.datamodel.SleuthkitCase;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Streams the ARTIFACT_TEST artifacts of a case to a JSON Lines or CSV file.
+ * <p>
+ * Artifacts are read a page at a time, keyed on artifact ID, so each query
+ * starts where the last one ended instead of skipping rows.  The attributes
+ * of a page are read in artifact ID order and merged with the page as they
+ * stream in.  Output is encoded into one fixed direct buffer that is written
+ * to a FileChannel whenever it fills.  Memory use is therefore bounded by the
+ * page size, whatever the number of artifacts.
+ * <p>
+ * Values that were moved to the blob store are exported as they were
+ * written, read back from the store, rather than as references.
+ */
+final class ArtifactExporter {
+
+    /**
+     * Output formats.
+     */
+    enum Format {
+
+        /**
+         * One JSON object per artifact and line, with its attribute values in
+         * an array.
+         */
+        JSONL("jsonl"),
+        /**
+         * One row per attribute: artifact ID, object ID, value.
+         */
+        CSV("csv");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        String getExtension() {
+            return extension;
+        }
+    }
+
+    /**
+     * Tells the export to stop early.
+     */
+    interface Cancellation {
+
+        boolean isCancelled();
+    }
+
+    static final int DEFAULT_PAGE_SIZE = 10000;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final SleuthkitCase sleuthkitCase;
+    private final ArtifactTypeRegistry.Types types;
+    private final Format format;
+    private final int pageSize;
+    private final BlobStore store;
+
+    // reused for every page
+    private final long[] artifactIDs;
+    private final long[] objectIDs;
+
+    /**
+     * Creates an exporter.
+     *
+     * @param sleuthkitCase The case database.
+     * @param types The blackboard types of the module in the case.
+     * @param format The output format.
+     * @param pageSize The number of artifacts read per query.
+     * @param store The blob store of the case, or null if it has none.
+     */
+    ArtifactExporter(SleuthkitCase sleuthkitCase, ArtifactTypeRegistry.Types types, Format format, int pageSize,
+            BlobStore store) {
+        this.sleuthkitCase = sleuthkitCase;
+        this.types = types;
+        this.format = format;
+        this.pageSize = pageSize;
+        this.store = store;
+        this.artifactIDs = new long[pageSize];
+        this.objectIDs = new long[pageSize];
+    }
+
+    /**
+     * Writes every artifact of the module's type to a file, replacing the
+     * file if it exists.
+     *
+     * @param file The file to write.
+     * @param cancellation Checked before each page.
+     * @return The number of artifacts written.
+     * @throws TskCoreException If querying the case database fails.
+     * @throws IOException If writing the file fails.
+     */
+    long export(Path file, Cancellation cancellation) throws TskCoreException, IOException {
+        long artifactCount = 0;
+        try (TextChannel out = new TextChannel(FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+            if (format == Format.CSV) {
+                out.append("artifact_id,obj_id,value\n");
+            }
+            long lastArtifactID = -1;
+            int count;
+            while (!cancellation.isCancelled() && (count = readPage(lastArtifactID)) > 0) {
+                writePage(out, count);
+                artifactCount += count;
+                lastArtifactID = artifactIDs[count - 1];
+            }
+        }
+        return artifactCount;
+    }
+
+    // the IDs of the next page of artifacts after lastArtifactID
+    private int readPage(long lastArtifactID) throws TskCoreException {
+        String sql = "SELECT artifact_id, obj_id FROM blackboard_artifacts"
+                + " WHERE artifact_type_id = " + types.getArtifactTypeID()
+                + " AND artifact_id > " + lastArtifactID
+                + " ORDER BY artifact_id LIMIT " + pageSize;
+        try (CaseDbQuery query = sleuthkitCase.executeQuery(sql)) {
+            ResultSet rows = query.getResultSet();
+            int count = 0;
+            while (rows.next()) {
+                artifactIDs[count] = rows.getLong(1);
+                objectIDs[count] = rows.getLong(2);
+                count++;
+            }
+            return count;
+        } catch (SQLException ex) {
+            throw new TskCoreException("Failed to read artifacts after " + lastArtifactID, ex);
+        }
+    }
+
+    // stream the attributes of the page, merging them with the page by artifact ID
+    private void writePage(TextChannel out, int count) throws TskCoreException, IOException {
+        String sql = "SELECT artifact_id, value_text FROM blackboard_attributes"
+                + " WHERE attribute_type_id = " + types.getAttributeTypeID()
+                + " AND artifact_id BETWEEN " + artifactIDs[0] + " AND " + artifactIDs[count - 1]
+                + " ORDER BY artifact_id";
+        try (CaseDbQuery query = sleuthkitCase.executeQuery(sql)) {
+            ResultSet rows = query.getResultSet();
+            boolean hasRow = rows.next();
+            for (int i = 0; i < count; i++) {
+                // skip attributes of artifacts of other types in the ID range
+                while (hasRow && rows.getLong(1) < artifactIDs[i]) {
+                    hasRow = rows.next();
+                }
+                if (format == Format.JSONL) {
+                    out.append("{\"artifact_id\":").append(artifactIDs[i])
+                            .append(",\"obj_id\":").append(objectIDs[i])
+                            .append(",\"values\":[");
+                }
+                boolean first = true;
+                while (hasRow && rows.getLong(1) == artifactIDs[i]) {
+                    String value = rows.getString(2);
+                    if (store != null && value != null) {
+                        value = store.resolve(value);
+                    }
+                    if (format == Format.JSONL) {
+                        if (!first) {
+                            out.append(',');
+                        }
+                        appendJsonString(out, value);
+                    } else {
+                        out.append(artifactIDs[i]).append(',').append(objectIDs[i]).append(',');
+                        appendCsvField(out, value);
+                        out.append('\n');
+                    }
+                    first = false;
+                    hasRow = rows.next();
+                }
+                if (format == Format.JSONL) {
+                    out.append("]}\n");
+                }
+            }
+        } catch (SQLException ex) {
+            throw new TskCoreException("Failed to read attributes of artifacts " + artifactIDs[0] + " to " + artifactIDs[count - 1], ex);
+        }
+    }
+
+    private static void appendJsonString(TextChannel out, String value) throws IOException {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    private static void appendCsvField(TextChannel out, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        out.append('"');
+    }
+
+    /**
+     * UTF-8 text output to a FileChannel through fixed buffers.
+     */
+    private static final class TextChannel implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE / 4);
+        private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        TextChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        TextChannel append(char c) throws IOException {
+            if (!chars.hasRemaining()) {
+                encode(false);
+            }
+            chars.put(c);
+            return this;
+        }
+
+        TextChannel append(CharSequence text) throws IOException {
+            for (int i = 0; i < text.length(); i++) {
+                append(text.charAt(i));
+            }
+            return this;
+        }
+
+        TextChannel append(long number) throws IOException {
+            return append(Long.toString(number));
+        }
+
+        // move the pending characters into the byte buffer, writing it out when full
+        private void encode(boolean endOfInput) throws IOException {
+            chars.flip();
+            while (true) {
+                CoderResult result = encoder.encode(chars, bytes, endOfInput);
+                if (result.isOverflow()) {
+                    drain();
+                } else if (result.isUnderflow()) {
+                    break;
+                } else {
+                    result.throwException();
+                }
+            }
+            chars.compact();
+        }
+
+        private void drain() throws IOException {
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            bytes.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                encode(true);
+                while (encoder.flush(bytes).isOverflow()) {
+                    drain();
+                }
+                drain();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.util.Collection;
+import org.sleuthkit.datamodel.BlackboardArtifact;
+import org.sleuthkit.datamodel.BlackboardAttribute;
+import org.sleuthkit.datamodel.Content;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * A blackboard artifact that has not been written to the case database yet:
+ * the content it belongs to and the attributes to add to it.
+ */
+final class ArtifactRecord {
+
+    private final Content content;
+    private final Collection<BlackboardAttribute> attributes;
+
+    ArtifactRecord(Content content, Collection<BlackboardAttribute> attributes) {
+        this.content = content;
+        this.attributes = attributes;
+    }
+
+    Content getContent() {
+        return content;
+    }
+
+    Collection<BlackboardAttribute> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Creates the artifact and adds its attributes.
+     *
+     * @param artifactTypeID The type of the artifact.
+     * @param metrics Where to record the latencies of the writes.
+     * @throws TskCoreException If creating the artifact or adding its
+     * attributes fails.
+     */
+    void write(int artifactTypeID, IngestJobMetrics metrics) throws TskCoreException {
+        try {
+            long startNanos = System.nanoTime();
+            BlackboardArtifact blackboardArtifact = content.newArtifact(artifactTypeID);
+            long createdNanos = System.nanoTime();
+            metrics.artifactCreation.record(createdNanos - startNanos);
+            blackboardArtifact.addAttributes(attributes);
+            metrics.attributeInsertion.recordSince(createdNanos);
+            metrics.artifactWritten(attributes.size());
+        } catch (TskCoreException ex) {
+            metrics.error();
+            throw ex;
+        }
+    }
+}
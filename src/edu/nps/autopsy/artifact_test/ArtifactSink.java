@@ -0,0 +1,69 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.util.Collection;
+import java.util.List;
+import org.sleuthkit.datamodel.BlackboardAttribute;
+import org.sleuthkit.datamodel.Content;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Where an ingest job sends the blackboard artifacts it creates.
+ */
+interface ArtifactSink {
+
+    /**
+     * Adds an artifact.  The artifact may be written later.
+     *
+     * @param content The content the artifact belongs to.
+     * @param attributes The attributes of the artifact.
+     * @throws TskCoreException If writing artifacts fails.
+     */
+    void add(Content content, Collection<BlackboardAttribute> attributes) throws TskCoreException;
+
+    /**
+     * Adds several artifacts at once.  The artifacts may be written later.
+     *
+     * @param records The artifacts.
+     * @throws TskCoreException If writing artifacts fails.
+     */
+    void addAll(List<ArtifactRecord> records) throws TskCoreException;
+
+    /**
+     * Returns once every artifact added so far is in the case database.
+     *
+     * @throws TskCoreException If any artifact added so far was not written,
+     * whether it failed now or earlier.
+     */
+    void flush() throws TskCoreException;
+
+    /**
+     * Flushes the sink and logs what it wrote.  No artifacts may be added
+     * after the sink is closed.
+     *
+     * @throws TskCoreException If writing artifacts fails.
+     */
+    void close() throws TskCoreException;
+
+    /**
+     * Gets a one line summary of what the sink has written.
+     *
+     * @return The summary.
+     */
+    String getSummary();
+}
@@ -0,0 +1,217 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.ingest.FileIngestModule;
+import org.sleuthkit.autopsy.ingest.IngestJobContext;
+import org.sleuthkit.autopsy.ingest.IngestMessage;
+import org.sleuthkit.autopsy.ingest.IngestModuleReferenceCounter;
+import org.sleuthkit.datamodel.AbstractFile;
+import org.sleuthkit.datamodel.BlackboardAttribute;
+import org.sleuthkit.datamodel.SleuthkitCase;
+import org.sleuthkit.datamodel.TskCoreException;
+import org.sleuthkit.datamodel.TskData;
+
+/**
+ * Artifact Test file ingest module.  Tags every file whose name matches the
+ * file name pattern of the job with an ARTIFACT_TEST artifact.
+ * <p>
+ * Autopsy runs one instance of this module per file ingest thread.  Each
+ * instance collects its artifacts in its own buffer and hands the buffer to
+ * the artifact sink of the job only when it is full, so the ingest threads
+ * do not contend for the sink on every file.  The sink is shared by all
+ * instances of the job and reference counted; the last instance to shut down
+ * closes it.
+ */
+public class ArtifactTestFileIngestModule implements FileIngestModule {
+
+    private static final IngestModuleReferenceCounter refCounter = new IngestModuleReferenceCounter();
+    // guarded by itself, so that only the first instance of a job opens its sink
+    private static final Map<Long, JobState> jobStates = new HashMap<Long, JobState>();
+    private static final String moduleName = ArtifactTestIngestModuleFactory.getModuleName();
+
+    private final ArtifactTestIngestModuleIngestJobSettings settings;
+
+    // startUp
+    private IngestJobEnvironment environment;
+    private Logger logger;
+    private JobState jobState;
+    private IngestJobMetrics metrics;
+    private Matcher fileNameMatcher;
+    private int attributeID = -1;
+
+    // this thread's artifacts, not yet handed to the sink
+    private final List<ArtifactRecord> buffer = new ArrayList<ArtifactRecord>();
+
+    /**
+     * What the module instances of one ingest job share.
+     */
+    private static final class JobState {
+
+        private final ArtifactSink sink;
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong matchCount = new AtomicLong();
+
+        JobState(ArtifactSink sink) {
+            this.sink = sink;
+        }
+    }
+
+    ArtifactTestFileIngestModule(ArtifactTestIngestModuleIngestJobSettings settings) {
+        this.settings = settings;
+    }
+
+    @Override
+    public void startUp(IngestJobContext context) throws IngestModuleException {
+        this.environment = new AutopsyIngestJobEnvironment(context);
+        this.logger = environment.getLogger();
+        if (settings.getFileNamePattern().isEmpty()) {
+            // nothing to tag
+            return;
+        }
+        try {
+            fileNameMatcher = Pattern.compile(settings.getFileNamePattern()).matcher("");
+        } catch (PatternSyntaxException ex) {
+            throw new IngestModuleException("Bad file name pattern: " + ex.getLocalizedMessage());
+        }
+
+        // the value template of the job identifies duplicates
+        ValueTemplate valueTemplate;
+        try {
+            valueTemplate = ValueTemplate.compile(settings.getValueTemplate(), settings.getTimeFormat(),
+                    System.currentTimeMillis(), settings.getPayloadSize());
+        } catch (IllegalArgumentException ex) {
+            throw new IngestModuleException("Bad value template: " + ex.getLocalizedMessage());
+        }
+
+        metrics = IngestJobMetrics.open(environment);
+        long startNanos = System.nanoTime();
+        try {
+            SleuthkitCase sleuthkitCase = environment.getSleuthkitCase();
+            ArtifactTypeRegistry.Types types = ArtifactTypeRegistry.getTypes(sleuthkitCase);
+            attributeID = types.getAttributeTypeID();
+            metrics.typeRegistration.recordSince(startNanos);
+
+            // the first instance of the job opens the shared sink
+            synchronized (jobStates) {
+                jobState = jobStates.get(environment.getJobId());
+                if (jobState == null) {
+                    jobState = new JobState(ArtifactTestIngestModule.openArtifactSink(settings,
+                            sleuthkitCase, environment.getModuleOutputDirectory(), environment.getJobId(), types,
+                            valueTemplate, logger, metrics));
+                    jobStates.put(environment.getJobId(), jobState);
+                }
+                refCounter.incrementAndGet(environment.getJobId());
+            }
+        } catch (TskCoreException ex) {
+            logger.log(Level.SEVERE, "Failed to create blackboard artifact or attribute", ex);
+            metrics.error();
+            metrics.close();
+            metrics = null;
+            throw new IngestModuleException(ex.getLocalizedMessage());
+        }
+    }
+
+    @Override
+    public ProcessResult process(AbstractFile file) {
+        if (jobState == null) {
+            return ProcessResult.OK;
+        }
+
+        // skip directories and unallocated space
+        if (file.isDir()
+                || file.getType() == TskData.TSK_DB_FILES_TYPE_ENUM.UNALLOC_BLOCKS
+                || file.getType() == TskData.TSK_DB_FILES_TYPE_ENUM.UNUSED_BLOCKS) {
+            return ProcessResult.OK;
+        }
+        if (!fileNameMatcher.reset(file.getName()).matches()) {
+            return ProcessResult.OK;
+        }
+
+        buffer.add(new ArtifactRecord(file, Collections.singletonList(new BlackboardAttribute(
+                attributeID, moduleName, "matched " + file.getParentPath() + file.getName()))));
+        jobState.matchCount.incrementAndGet();
+        if (buffer.size() >= settings.getBatchSize()) {
+            return handOff();
+        }
+        return ProcessResult.OK;
+    }
+
+    @Override
+    public void shutDown() {
+        if (jobState == null) {
+            return;
+        }
+
+        // merge what is left in this thread's buffer
+        handOff();
+
+        // the last instance of the job closes the shared sink
+        boolean last;
+        synchronized (jobStates) {
+            last = refCounter.decrementAndGet(environment.getJobId()) == 0;
+            if (last) {
+                jobStates.remove(environment.getJobId());
+            }
+        }
+        if (last) {
+            try {
+                jobState.sink.close();
+            } catch (TskCoreException ex) {
+                logger.log(Level.SEVERE, "Failed to write blackboard artifacts", ex);
+            }
+            postReport();
+        }
+        metrics.close();
+    }
+
+    // hand this thread's buffer to the sink of the job
+    private ProcessResult handOff() {
+        try {
+            jobState.sink.addAll(buffer);
+            return ProcessResult.OK;
+        } catch (TskCoreException ex) {
+            logger.log(Level.SEVERE, "Failed to create blackboard artifact", ex);
+            return ProcessResult.ERROR;
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    // post the number of tagged files to the ingest inbox
+    private void postReport() {
+        double seconds = Math.max(1, System.nanoTime() - jobState.startNanos) / 1.0e9;
+        long matchCount = jobState.matchCount.get();
+        String subject = String.format("%s: tagged %d files matching %s", moduleName, matchCount, settings.getFileNamePattern());
+        String details = String.format("<p>%.1f files/sec over %.3f seconds</p><p>%s</p>",
+                matchCount / seconds, seconds, jobState.sink.getSummary());
+        logger.log(Level.INFO, subject);
+        environment.postMessage(IngestMessage.createMessage(
+                IngestMessage.MessageType.INFO, moduleName, subject, details));
+    }
+}
@@ -16,19 +16,26 @@
 
 package edu.nps.autopsy.artifact_test;
 
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.logging.Level;
-import java.util.Collection;
-import java.util.Date;
-import org.sleuthkit.autopsy.casemodule.Case;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import org.sleuthkit.autopsy.ingest.DataSourceIngestModule;
 import org.sleuthkit.autopsy.ingest.DataSourceIngestModuleProgress;
 import org.sleuthkit.autopsy.ingest.IngestJobContext;
+import org.sleuthkit.autopsy.ingest.IngestMessage;
 import org.sleuthkit.autopsy.ingest.IngestModuleReferenceCounter;
-import org.sleuthkit.autopsy.ingest.IngestServices;
-import org.sleuthkit.datamodel.BlackboardArtifact;
+import org.sleuthkit.datamodel.AbstractFile;
 import org.sleuthkit.datamodel.BlackboardAttribute;
 import org.sleuthkit.datamodel.Content;
 import org.sleuthkit.datamodel.Image;
@@ -43,135 +50,548 @@ public class ArtifactTestIngestModule implements DataSourceIngestModule {
     private static final IngestModuleReferenceCounter refCounter = new IngestModuleReferenceCounter();
     private static final String moduleName = ArtifactTestIngestModuleFactory.getModuleName();
 
+    private final ArtifactTestIngestModuleIngestJobSettings settings;
+
     // startUp
-    private IngestJobContext context;
+    private IngestJobEnvironment environment;
     private Logger logger;
 
     // blackboard artifact and attributes
-    private static int artifactID = -1;
-    private static int attributeID = -1;
+    private ArtifactTypeRegistry.Types types;
+    private int attributeID = -1;
+
+    // blackboard write metrics of the job, open only while process runs;
+    // there is no shutDown to close them in if a job ends before process
+    private IngestJobMetrics metrics;
+    private long typeRegistrationNanos;
+
+    // signature scan, or null if there are no signatures
+    private SignatureScanner signatureScanner;
+
+    // the attribute values of the generated artifacts
+    private ValueTemplate valueTemplate;
 
     // process
-    private DataSourceIngestModuleProgress progressBar;
-    
-    ArtifactTestIngestModule() {
+    private Progress progressBar;
+
+    /**
+     * Where the module reports its progress through a data source.
+     */
+    interface Progress {
+
+        void switchToDeterminate(int workUnits);
+
+        void progress(int workUnits);
+    }
+
+    ArtifactTestIngestModule(ArtifactTestIngestModuleIngestJobSettings settings) {
+        this.settings = settings;
     }
 
     @Override
     public void startUp(IngestJobContext context) throws IngestModuleException {
-        this.context = context;
-        this.logger = IngestServices.getInstance().getLogger(moduleName);
-        if (refCounter.incrementAndGet(context.getJobId()) != 1) {
+        startUp(new AutopsyIngestJobEnvironment(context));
+    }
+
+    /**
+     * Starts the module for an ingest job in an environment of its own.
+     *
+     * @param environment The ingest job and its case.
+     * @throws IngestModuleException If the module cannot start.
+     */
+    void startUp(IngestJobEnvironment environment) throws IngestModuleException {
+        this.environment = environment;
+        this.logger = environment.getLogger();
+        if (refCounter.incrementAndGet(environment.getJobId()) != 1) {
             // do not run twice.  Can it?
             logger.log(Level.SEVERE, "ArtifactTestIngestModule.startUp count is bad");
             throw new IngestModuleException("ArtifactTestIngestModule.startUp count is bad");
         }
         
-        // establish the blackboard artifact and its attribute
-        setArtifactAndAttribute();            // fails
-        //setExistingArtifactAndAttribute();    // works fine
-    }
-    
-    private synchronized void setArtifactAndAttribute() throws IngestModuleException {
-        if (artifactID == -1) {
-            try {
-                // set up static variables
-                SleuthkitCase sleuthkitCase = Case.getCurrentCase().getSleuthkitCase();
-                artifactID = sleuthkitCase.getArtifactTypeID("ARTIFACT_TEST");
-
-                if (artifactID == -1) {
-
-                    // add artifact and attribute to Sleuthkit
-                    logger.log(Level.INFO, "checkpoint A");
-                    artifactID = sleuthkitCase.addArtifactType("ARTIFACT_TEST", "Artifact for Artifact Test");
-                    logger.log(Level.INFO, "checkpoint B");
-                    attributeID = sleuthkitCase.addAttrType("ATTRIBUTE_TEST", "Attribute for Artifact Test");
-                } else {
-                    // get attribute values
-                    attributeID = sleuthkitCase.getAttrTypeID("ATTRIBUTE_TEST");
-                }
-                logger.log(Level.INFO, "checkpoint C");
-            } catch (TskCoreException ex) {
-                IngestServices ingestServices = IngestServices.getInstance();
-                logger.log(Level.SEVERE, "Failed to create blackboard artifact or attribute", ex);
-                artifactID = -1;
-                throw new IngestModuleException(ex.getLocalizedMessage());
+        // compile the signatures
+        try {
+            List<byte[]> signatures = SignatureAutomaton.parseSignatures(settings.getSignatures());
+            if (!signatures.isEmpty()) {
+                signatureScanner = new SignatureScanner(new SignatureAutomaton(signatures),
+                        settings.getScanChunkSize(), settings.getScanThreads());
             }
-        }   
-    }
+        } catch (IllegalArgumentException ex) {
+            throw new IngestModuleException(ex.getLocalizedMessage());
+        }
 
-    private synchronized void setExistingArtifactAndAttribute() throws IngestModuleException {
-        if (artifactID == -1) {
-            try {
-                // set up static variables
-                SleuthkitCase sleuthkitCase = Case.getCurrentCase().getSleuthkitCase();
-                artifactID = sleuthkitCase.getArtifactTypeID("TSK_WEB_DOWNLOAD");
-
-                if (artifactID == -1) {
-                    throw new IngestModuleException("ArtifactTestIngestModule artifact ID is bad");
-                } else {
-                    // get attribute values
-                    attributeID = sleuthkitCase.getAttrTypeID("TSK_PATH_SOURCE");
-                    if (artifactID == -1) {
-                        throw new IngestModuleException("ArtifactTestIngestModule attribute ID is bad");
-                    }
-                }
-            } catch (TskCoreException ex) {
-                IngestServices ingestServices = IngestServices.getInstance();
-                logger.log(Level.SEVERE, "Failed to create blackboard artifact or attribute", ex);
-                artifactID = -1;
-                attributeID = -1;
-                throw new IngestModuleException(ex.getLocalizedMessage());
+        // compile the value template
+        try {
+            valueTemplate = ValueTemplate.compile(settings.getValueTemplate(), settings.getTimeFormat(),
+                    System.currentTimeMillis(), settings.getPayloadSize());
+        } catch (IllegalArgumentException ex) {
+            throw new IngestModuleException("Bad value template: " + ex.getLocalizedMessage());
+        }
+
+        // get the blackboard artifact and its attribute, normally registered
+        // in the background when the case was opened
+        long startNanos = System.nanoTime();
+        try {
+            SleuthkitCase sleuthkitCase = environment.getSleuthkitCase();
+            types = ArtifactTypeRegistry.getTypes(sleuthkitCase);
+            attributeID = types.getAttributeTypeID();
+            typeRegistrationNanos = System.nanoTime() - startNanos;
+
+            // load what earlier runs wrote, once per case
+            if (settings.isSkipDuplicates()) {
+                DeduplicationIndex.forCase(sleuthkitCase, types, environment.getModuleOutputDirectory(), valueTemplate);
             }
+        } catch (TskCoreException ex) {
+            logger.log(Level.SEVERE, "Failed to create blackboard artifact or attribute", ex);
+            throw new IngestModuleException(ex.getLocalizedMessage());
         }
     }
 
     @Override
-    public ProcessResult process(Content dataSource, DataSourceIngestModuleProgress progressBar) {
+    public ProcessResult process(Content dataSource, final DataSourceIngestModuleProgress progressBar) {
+        return process(dataSource, new Progress() {
+            @Override
+            public void switchToDeterminate(int workUnits) {
+                progressBar.switchToDeterminate(workUnits);
+            }
+
+            @Override
+            public void progress(int workUnits) {
+                progressBar.progress(workUnits);
+            }
+        });
+    }
+
+    /**
+     * Processes a data source, reporting progress to a progress of its own.
+     *
+     * @param dataSource The data source.
+     * @param progressBar Receives the progress.
+     * @return The result.
+     */
+    ProcessResult process(Content dataSource, Progress progressBar) {
         this.progressBar = progressBar;
 
         // skip if startUp was called more than once
-        if (refCounter.get(context.getJobId()) != 1) {
+        if (refCounter.get(environment.getJobId()) != 1) {
             // do not run twice.  Can it?
             logger.log(Level.SEVERE, "BlacklistDataSourceIngestModule.process count is bad");
             return ProcessResult.OK;
         }
 
-        // skip if not processing sleuthkit.datamodel.Image
-        if (!(dataSource instanceof Image)) {
-            // not a disk image
-            return ProcessResult.OK;
+        metrics = IngestJobMetrics.open(environment);
+        try {
+            metrics.typeRegistration.record(typeRegistrationNanos);
+            return processDataSource(dataSource);
+        } finally {
+            if (signatureScanner != null) {
+                signatureScanner.close();
+            }
+            metrics.close();
         }
+    }
 
-        // write the artifact
-        progressBar.switchToDeterminate(1);
+    private ProcessResult processDataSource(Content dataSource) {
+        ArtifactSink writer;
+        try {
+            writer = openArtifactSink(settings, environment.getSleuthkitCase(), environment.getModuleOutputDirectory(),
+                    environment.getJobId(), types, valueTemplate, logger, metrics);
+        } catch (TskCoreException ex) {
+            logger.log(Level.SEVERE, "Failed to open the artifact sink", ex);
+            return ProcessResult.ERROR;
+        }
+
+        // pick up where an earlier run that did not finish stopped
+        int artifactCount = settings.getArtifactsPerDataSource();
+        ProcessingCheckpoint checkpoint = ProcessingCheckpoint.load(environment.getModuleOutputDirectory(),
+                dataSource.getId(), ArtifactTestIngestModuleFactory.getModuleVersion(), describeWork());
+        if (checkpoint.isResumed()) {
+            logger.log(Level.INFO, String.format("Resuming %s: %d bytes scanned and %d artifacts written by an earlier run",
+                    dataSource.getName(), checkpoint.getCommittedLength(ProcessingCheckpoint.SCANNED),
+                    checkpoint.getCommittedLength(ProcessingCheckpoint.GENERATED)));
+        }
+
+        // scan the image, or the files of a logical file set or local directory
+        ProcessResult result = ProcessResult.OK;
+        if (signatureScanner != null) {
+            if (dataSource instanceof Image) {
+                result = scanSignatures(writer, dataSource, checkpoint);
+            } else {
+                result = scanFiles(writer, dataSource);
+            }
+        }
+
+        // record the digests of the image
+        if (result == ProcessResult.OK && settings.isHashImage() && dataSource instanceof Image
+                && !checkpoint.getRemaining(ProcessingCheckpoint.HASHED, 0, dataSource.getSize()).isEmpty()) {
+            result = hashImage(writer, dataSource, checkpoint);
+        }
+
+        // write the artifacts
+        progressBar.switchToDeterminate(artifactCount);
         progressBar.progress(0);
-        addTheArtifact(dataSource);
-        progressBar.progress(1);
+        long startNanos = System.nanoTime();
+        AtomicInteger generatedCount = new AtomicInteger();
+        if (result == ProcessResult.OK) {
+            result = generateArtifacts(writer, dataSource, artifactCount, generatedCount, checkpoint);
+        }
 
+        // write whatever is left in the last batch or still queued, keeping
+        // the progress for the next run if the job was cancelled; after an
+        // error a range marked completed may have lost artifacts with a failed
+        // batch, so only what earlier commits saved is kept
+        boolean cancelled = result == ProcessResult.OK && environment.isJobCancelled();
+        boolean finished = result == ProcessResult.OK && !cancelled;
+        try {
+            if (cancelled) {
+                commitCheckpoint(writer, checkpoint, true);
+            }
+            writer.close();
+        } catch (TskCoreException ex) {
+            logger.log(Level.SEVERE, "Failed to write blackboard artifacts", ex);
+            result = ProcessResult.ERROR;
+            finished = false;
+        }
+        if (finished) {
+            try {
+                checkpoint.delete();
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Failed to delete the checkpoint of " + dataSource.getName(), ex);
+            }
+        }
+        progressBar.progress(artifactCount);
+        postLoadReport(dataSource, writer, generatedCount.get(), System.nanoTime() - startNanos);
+
+        return result;
+    }
+
+    // record an artifact for every signature found in the data source
+    // in segments, so that the scanned part can be checkpointed
+    private ProcessResult scanSignatures(final ArtifactSink writer, final Content dataSource,
+            ProcessingCheckpoint checkpoint) {
+        final int chunkSize = settings.getScanChunkSize();
+        final long resumedBytes = checkpoint.getCommittedLength(ProcessingCheckpoint.SCANNED);
+        final AtomicLong scannedBytes = new AtomicLong(resumedBytes);
+        final AtomicLong hitCount = new AtomicLong();
+        progressBar.switchToDeterminate((int) ((dataSource.getSize() + chunkSize - 1) / chunkSize));
+        progressBar.progress((int) (resumedBytes / chunkSize));
+        SignatureScanner.Listener listener = newSignatureRecorder(writer, dataSource, hitCount);
+        SignatureScanner.Cancellation cancellation = new SignatureScanner.Cancellation() {
+            @Override
+            public boolean isCancelled() {
+                return environment.isJobCancelled();
+            }
+        };
+        Runnable progress = new Runnable() {
+            @Override
+            public void run() {
+                progressBar.progress((int) (scannedBytes.get() / chunkSize));
+            }
+        };
+        long segmentSize = signatureScanner.getSegmentSize();
+        long startNanos = System.nanoTime();
+        try {
+            for (long[] gap : checkpoint.getRemaining(ProcessingCheckpoint.SCANNED, 0, dataSource.getSize())) {
+                for (long start = gap[0]; start < gap[1] && !environment.isJobCancelled(); start += segmentSize) {
+                    long end = Math.min(gap[1], start + segmentSize);
+                    signatureScanner.scan(dataSource, start, end, listener, cancellation, scannedBytes, progress);
+                    if (!environment.isJobCancelled()) {
+                        checkpoint.completed(ProcessingCheckpoint.SCANNED, start, end);
+                        commitCheckpoint(writer, checkpoint, false);
+                    }
+                }
+            }
+        } catch (TskCoreException ex) {
+            logger.log(Level.SEVERE, "Failed to scan " + dataSource.getName() + " for signatures", ex);
+            return ProcessResult.ERROR;
+        }
+        double seconds = Math.max(1, System.nanoTime() - startNanos) / 1.0e9;
+        long bytes = scannedBytes.get() - resumedBytes;
+        logger.log(Level.INFO, String.format("Found %d signatures in %s, scanned %d bytes at %.1f MB/sec",
+                hitCount.get(), dataSource.getName(), bytes, bytes / seconds / 1.0e6));
         return ProcessResult.OK;
     }
 
-    // add the artifact
-    private ProcessResult addTheArtifact(Content dataSource) {
+    // record an artifact for every signature found in the files under the data
+    // source, walking the tree in parallel
+    private ProcessResult scanFiles(final ArtifactSink writer, Content dataSource) {
+        final AtomicLong scannedBytes = new AtomicLong();
+        final AtomicLong hitCount = new AtomicLong();
+        final SignatureScanner.Cancellation cancellation = new SignatureScanner.Cancellation() {
+            @Override
+            public boolean isCancelled() {
+                return environment.isJobCancelled();
+            }
+        };
+        final ContentTraversal traversal = new ContentTraversal(environment.getSleuthkitCase(),
+                settings.getScanThreads());
+        progressBar.switchToDeterminate(1);
+        progressBar.progress(0);
+        long startNanos = System.nanoTime();
+        try {
+            traversal.traverse(dataSource, new ContentTraversal.Visitor() {
+                @Override
+                public void visit(Content content) throws TskCoreException {
+                    if (content instanceof AbstractFile && ((AbstractFile) content).isFile() && content.getSize() > 0) {
+                        signatureScanner.scanInPool(content, 0, content.getSize(),
+                                newSignatureRecorder(writer, content, hitCount), cancellation, scannedBytes);
+                    }
+                }
+            }, new ContentTraversal.Cancellation() {
+                @Override
+                public boolean isCancelled() {
+                    return environment.isJobCancelled();
+                }
+            }, new Runnable() {
+                // the work units are the contents discovered so far
+                private long workUnits = 1;
 
-        // create the attribute
-        Collection<BlackboardAttribute> attributes = new ArrayList<BlackboardAttribute>();
-        String dateAndTime = new SimpleDateFormat("MM-dd-yy-HH-mm-ss").format(new Date());
-        attributes.add(new BlackboardAttribute(attributeID, moduleName, "hello attribute at " + dateAndTime));
+                @Override
+                public void run() {
+                    long discovered = traversal.getDiscoveredCount();
+                    if (discovered != workUnits) {
+                        workUnits = discovered;
+                        progressBar.switchToDeterminate((int) Math.min(Integer.MAX_VALUE, workUnits));
+                    }
+                    progressBar.progress((int) Math.min(Integer.MAX_VALUE, traversal.getVisitedCount()));
+                }
+            });
+        } catch (TskCoreException ex) {
+            logger.log(Level.SEVERE, "Failed to scan the files of " + dataSource.getName() + " for signatures", ex);
+            return ProcessResult.ERROR;
+        }
+        double seconds = Math.max(1, System.nanoTime() - startNanos) / 1.0e9;
+        logger.log(Level.INFO, String.format("Found %d signatures in %d contents of %s, scanned %d bytes at %.1f MB/sec",
+                hitCount.get(), traversal.getVisitedCount(), dataSource.getName(), scannedBytes.get(),
+                scannedBytes.get() / seconds / 1.0e6));
+        return ProcessResult.OK;
+    }
 
-        // create and add the artifact
+    // record the root and segment digests of the Merkle tree of the image on
+    // one artifact, so that a later run can check single segments
+    private ProcessResult hashImage(ArtifactSink writer, Content dataSource, ProcessingCheckpoint checkpoint) {
+        final AtomicLong hashedBytes = new AtomicLong();
+        progressBar.switchToDeterminate((int) ((dataSource.getSize() + MerkleHasher.LEAF_SIZE - 1) / MerkleHasher.LEAF_SIZE));
+        progressBar.progress(0);
+        long startNanos = System.nanoTime();
         try {
-            BlackboardArtifact blackboardArtifact = dataSource.newArtifact(artifactID);
-            blackboardArtifact.addAttributes(attributes);
-
+            MerkleHasher.Result digests = new MerkleHasher(settings.getScanThreads()).hash(dataSource,
+                    settings.getHashSegmentSize(), new MerkleHasher.Cancellation() {
+                @Override
+                public boolean isCancelled() {
+                    return environment.isJobCancelled();
+                }
+            }, hashedBytes, new Runnable() {
+                @Override
+                public void run() {
+                    progressBar.progress((int) (hashedBytes.get() / MerkleHasher.LEAF_SIZE));
+                }
+            });
+            if (digests == null) {
+                // cancelled
+                return ProcessResult.OK;
+            }
+            List<BlackboardAttribute> attributes = new ArrayList<BlackboardAttribute>(1 + digests.getSegmentCount());
+            attributes.add(new BlackboardAttribute(attributeID, moduleName, String.format(
+                    "merkle sha256 root %s size %d leaf %d segment %d", MerkleHasher.toHex(digests.getRoot()),
+                    digests.getSize(), MerkleHasher.LEAF_SIZE, digests.getSegmentSize())));
+            for (int i = 0; i < digests.getSegmentCount(); i++) {
+                attributes.add(new BlackboardAttribute(attributeID, moduleName, String.format(
+                        "merkle sha256 segment %d offset %d %s", i, i * digests.getSegmentSize(),
+                        MerkleHasher.toHex(digests.getSegment(i)))));
+            }
+            writer.add(dataSource, attributes);
+            checkpoint.completed(ProcessingCheckpoint.HASHED, 0, dataSource.getSize());
         } catch (TskCoreException ex) {
-            logger.log(Level.SEVERE, "Failed to create blackboard artifact", ex);
-            artifactID = -1;
-            attributeID = -1;
+            logger.log(Level.SEVERE, "Failed to hash " + dataSource.getName(), ex);
             return ProcessResult.ERROR;
         }
+        double seconds = Math.max(1, System.nanoTime() - startNanos) / 1.0e9;
+        logger.log(Level.INFO, String.format("Hashed %d bytes of %s at %.1f MB/sec",
+                hashedBytes.get(), dataSource.getName(), hashedBytes.get() / seconds / 1.0e6));
         return ProcessResult.OK;
     }
-}
 
+    // records an artifact on the content for each signature found in it
+    private SignatureScanner.Listener newSignatureRecorder(final ArtifactSink writer, final Content content,
+            final AtomicLong hitCount) {
+        final SignatureAutomaton automaton = signatureScanner.getAutomaton();
+        return new SignatureScanner.Listener() {
+            @Override
+            public void signatureFound(int signatureIndex, long offset) throws TskCoreException {
+                writer.add(content, Collections.singletonList(new BlackboardAttribute(attributeID, moduleName,
+                        "signature " + automaton.toHex(signatureIndex) + " at offset " + offset)));
+                hitCount.incrementAndGet();
+            }
+        };
+    }
+
+    // add the artifacts the checkpoint does not have, sharing them out over the
+    // generator threads a batch of indexes at a time
+    private ProcessResult generateArtifacts(final ArtifactSink writer, final Content dataSource,
+            int artifactCount, final AtomicInteger generatedCount, final ProcessingCheckpoint checkpoint) {
+        final List<long[]> blocks = new ArrayList<long[]>();
+        int blockSize = Math.max(1, settings.getBatchSize());
+        for (long[] gap : checkpoint.getRemaining(ProcessingCheckpoint.GENERATED, 0, artifactCount)) {
+            for (long start = gap[0]; start < gap[1]; start += blockSize) {
+                blocks.add(new long[]{start, Math.min(gap[1], start + blockSize)});
+            }
+        }
+        int resumedCount = (int) checkpoint.getCommittedLength(ProcessingCheckpoint.GENERATED);
+        progressBar.progress(resumedCount);
+
+        final AtomicInteger nextBlock = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+        int threadCount = Math.max(1, Math.min(settings.getConcurrency(), artifactCount - resumedCount));
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // this thread's buffers, reused for every block
+                    StringBuilder value = new StringBuilder();
+                    List<ArtifactRecord> records = new ArrayList<ArtifactRecord>();
+                    int blockIndex;
+                    while (!failed.get() && !environment.isJobCancelled()
+                            && (blockIndex = nextBlock.getAndIncrement()) < blocks.size()) {
+                        long[] block = blocks.get(blockIndex);
+                        int index = (int) block[0];
+                        while (index < block[1] && !environment.isJobCancelled()) {
+                            records.add(newArtifactRecord(dataSource, index, value));
+                            index++;
+                        }
+
+                        // hand the block to the writer in one call
+                        try {
+                            writer.addAll(records);
+                        } catch (TskCoreException ex) {
+                            logger.log(Level.SEVERE, "Failed to create blackboard artifact", ex);
+                            failed.set(true);
+                            break;
+                        } finally {
+                            records.clear();
+                        }
+                        generatedCount.addAndGet((int) (index - block[0]));
+                        if (index == block[1]) {
+                            checkpoint.completed(ProcessingCheckpoint.GENERATED, block[0], block[1]);
+                        }
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+
+        // report progress and commit the checkpoint from this thread while the
+        // generators run
+        try {
+            while (!executor.awaitTermination(250, TimeUnit.MILLISECONDS)) {
+                progressBar.progress(resumedCount + generatedCount.get());
+                if (!failed.get()) {
+                    try {
+                        commitCheckpoint(writer, checkpoint, false);
+                    } catch (TskCoreException ex) {
+                        logger.log(Level.SEVERE, "Failed to write blackboard artifacts", ex);
+                        failed.set(true);
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+            return ProcessResult.ERROR;
+        }
+        return failed.get() ? ProcessResult.ERROR : ProcessResult.OK;
+    }
+
+    // flush the writer and save the progress, if it is time or forced; the
+    // checkpoint is best effort, so failing to save it is not an error
+    private void commitCheckpoint(ArtifactSink writer, ProcessingCheckpoint checkpoint, boolean force)
+            throws TskCoreException {
+        if (!force && !checkpoint.isCommitDue()) {
+            return;
+        }
+        try {
+            checkpoint.commit(writer);
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Failed to save the checkpoint", ex);
+        }
+    }
+
+    // the settings that decide what work the module does on a data source
+    private String describeWork() {
+        return String.format("signatures=%s;artifacts=%d;attributes=%d;payload=%d;template=%s;time=%s;hash=%d",
+                settings.getSignatures(), settings.getArtifactsPerDataSource(),
+                settings.getAttributesPerArtifact(), settings.getPayloadSize(),
+                settings.getValueTemplate(), settings.getTimeFormat(),
+                settings.isHashImage() ? MerkleHasher.toSegmentSize(settings.getHashSegmentSize()) : 0);
+    }
+
+    // post the achieved rates to the ingest inbox
+    private void postLoadReport(Content dataSource, ArtifactSink writer, int artifactCount, long elapsedNanos) {
+        double seconds = Math.max(1, elapsedNanos) / 1.0e9;
+        long attributeCount = (long) artifactCount * settings.getAttributesPerArtifact();
+        String subject = String.format("%s: %.1f artifacts/sec for %s", moduleName, artifactCount / seconds, dataSource.getName());
+        StringBuilder details = new StringBuilder();
+        details.append("<table border='0' cellpadding='4' width='280'>");
+        details.append("<tr><td>Artifacts</td><td>").append(artifactCount).append("</td></tr>");
+        details.append("<tr><td>Attributes</td><td>").append(attributeCount).append("</td></tr>");
+        details.append("<tr><td>Seconds</td><td>").append(String.format("%.3f", seconds)).append("</td></tr>");
+        details.append("<tr><td>Artifacts/sec</td><td>").append(String.format("%.1f", artifactCount / seconds)).append("</td></tr>");
+        details.append("<tr><td>Attributes/sec</td><td>").append(String.format("%.1f", attributeCount / seconds)).append("</td></tr>");
+        details.append("<tr><td>Generator threads</td><td>").append(settings.getConcurrency()).append("</td></tr>");
+        details.append("</table>");
+        details.append("<p>").append(writer.getSummary()).append("</p>");
+        logger.log(Level.INFO, subject);
+        environment.postMessage(IngestMessage.createMessage(
+                IngestMessage.MessageType.INFO, moduleName, subject, details.toString()));
+    }
+
+    // write artifacts inline in batches or hand them to the write-behind thread,
+    // skipping the ones earlier runs already wrote and moving large values to
+    // the blob store in the output directory
+    static ArtifactSink openArtifactSink(ArtifactTestIngestModuleIngestJobSettings settings,
+            SleuthkitCase sleuthkitCase, Path outputDirectory, long jobId, ArtifactTypeRegistry.Types types,
+            ValueTemplate valueTemplate, Logger logger, IngestJobMetrics metrics) throws TskCoreException {
+        ArtifactSink sink;
+        WriteScheduler.JobShare share = WriteScheduler.forCase(sleuthkitCase).openJob(jobId, settings.getWritePriority());
+        if (settings.isWriteBehind()) {
+            sink = WriteBehindQueue.forCase(sleuthkitCase, settings.getQueueCapacity(), settings.getBatchSize())
+                    .openJob(jobId, types.getArtifactTypeID(), metrics, share);
+        } else {
+            sink = new BlackboardBatchWriter(sleuthkitCase, types.getArtifactTypeID(),
+                    settings.getBatchSize(), settings.getFlushIntervalMillis(), logger, metrics, share);
+        }
+        try {
+            if (settings.getBlobThreshold() > 0) {
+                try {
+                    sink = new BlobStoringSink(sink, BlobStore.forDirectory(outputDirectory),
+                            settings.getBlobThreshold(), settings.isCompressBlobs());
+                } catch (IOException ex) {
+                    throw new TskCoreException("Failed to open the blob store in " + outputDirectory, ex);
+                }
+            }
+
+            // skip duplicates on the original values, before any is stored
+            if (settings.isSkipDuplicates()) {
+                sink = new DeduplicatingSink(sink, DeduplicationIndex.forCase(sleuthkitCase, types, outputDirectory, valueTemplate));
+            }
+        } catch (TskCoreException ex) {
+            // close the empty sink, and with it the share of the job
+            sink.close();
+            throw ex;
+        }
+        return sink;
+    }
+
+    // build an artifact from the value template; the first attribute
+    // identifies the artifact when skipping duplicates, so it is numbered by
+    // artifact
+    private ArtifactRecord newArtifactRecord(Content dataSource, int index, StringBuilder value) {
+        BlackboardAttribute[] attributes = new BlackboardAttribute[settings.getAttributesPerArtifact()];
+        for (int i = 0; i < attributes.length; i++) {
+            value.setLength(0);
+            attributes[i] = new BlackboardAttribute(attributeID, moduleName,
+                    valueTemplate.appendTo(value, index, i).toString());
+        }
+        return new ArtifactRecord(dataSource, Arrays.asList(attributes));
+    }
+}
@@ -40,6 +40,18 @@ public class ArtifactTestIngestModuleFactory implements IngestModuleFactory {
         return "Artifact Test Module";
     }
 
+    // The module version, which the module instances use to tell the
+    // checkpoints of this version from those of earlier versions.
+    static String getModuleVersion() {
+        return VERSION_NUMBER;
+    }
+
+    // The name of the directory of this module in the module output directory
+    // of a case.
+    static String getModuleOutputDirectoryName() {
+        return "ArtifactTest";
+    }
+
     /**
      * Gets the display name that identifies the family of ingest modules the
      * factory creates. Autopsy uses this string to identify the module in user
@@ -73,7 +85,7 @@ public class ArtifactTestIngestModuleFactory implements IngestModuleFactory {
      */
     @Override
     public String getModuleVersionNumber() {
-        return VERSION_NUMBER;
+        return getModuleVersion();
     }
 
     /**
@@ -143,7 +155,7 @@ public class ArtifactTestIngestModuleFactory implements IngestModuleFactory {
      */
     @Override
     public boolean hasIngestJobSettingsPanel() {
-        return false;
+        return true;
     }
 
     /**
@@ -161,7 +173,10 @@ public class ArtifactTestIngestModuleFactory implements IngestModuleFactory {
      */
     @Override
     public IngestModuleIngestJobSettingsPanel getIngestJobSettingsPanel(IngestModuleIngestJobSettings settings) {
-        throw new UnsupportedOperationException();
+        if (!(settings instanceof ArtifactTestIngestModuleIngestJobSettings)) {
+            throw new IllegalArgumentException("Expected settings argument to be instanceof ArtifactTestModuleIngestJobSettings");
+        }
+        return new ArtifactTestIngestModuleIngestJobSettingsPanel((ArtifactTestIngestModuleIngestJobSettings) settings);
     }
 
     /**
@@ -210,7 +225,7 @@ public class ArtifactTestIngestModuleFactory implements IngestModuleFactory {
         if (!(settings instanceof ArtifactTestIngestModuleIngestJobSettings)) {
             throw new IllegalArgumentException("Expected settings argument to be instanceof ArtifactTestModuleIngestJobSettings");
         }
-        return new ArtifactTestIngestModule();
+        return new ArtifactTestIngestModule((ArtifactTestIngestModuleIngestJobSettings) settings);
     }
 
     /**
@@ -223,7 +238,7 @@ public class ArtifactTestIngestModuleFactory implements IngestModuleFactory {
      */
     @Override
     public boolean isFileIngestModuleFactory() {
-        return false;
+        return true;
     }
 
     /**
@@ -256,7 +271,10 @@ public class ArtifactTestIngestModuleFactory implements IngestModuleFactory {
      */
     @Override
     public FileIngestModule createFileIngestModule(IngestModuleIngestJobSettings settings) {
-        throw new UnsupportedOperationException();
+        if (!(settings instanceof ArtifactTestIngestModuleIngestJobSettings)) {
+            throw new IllegalArgumentException("Expected settings argument to be instanceof ArtifactTestModuleIngestJobSettings");
+        }
+        return new ArtifactTestFileIngestModule((ArtifactTestIngestModuleIngestJobSettings) settings);
     }
 }
 
@@ -16,20 +16,362 @@
 
 package edu.nps.autopsy.artifact_test;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import org.sleuthkit.autopsy.ingest.IngestModuleIngestJobSettings;
 
 /**
- * no Ingest job options
+ * Ingest job options for the Artifact Test module.
  */
 public class ArtifactTestIngestModuleIngestJobSettings implements IngestModuleIngestJobSettings {
     
     private static final long serialVersionUID = 1L;
 
+    static final int DEFAULT_BATCH_SIZE = 500;
+    static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 2000;
+    static final int DEFAULT_QUEUE_CAPACITY = 10000;
+    static final int DEFAULT_SCAN_CHUNK_SIZE = 4 * 1024 * 1024;
+    static final int DEFAULT_HASH_SEGMENT_SIZE = 256 * 1024 * 1024;
+
+    // blackboard writes
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+    private boolean writeBehind = false;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private boolean skipDuplicates = false;
+    private int writePriority = WriteScheduler.DEFAULT_PRIORITY;
+
+    // load generation
+    private int artifactsPerDataSource = 1;
+    private int attributesPerArtifact = 1;
+    private int payloadSize = 0;
+    private int concurrency = 1;
+    private String valueTemplate = ValueTemplate.DEFAULT_TEMPLATE;
+    private String timeFormat = ValueTemplate.DEFAULT_TIME_FORMAT;
+
+    // file ingest
+    private String fileNamePattern = "";
+
+    // signature scan
+    private String signatures = "";
+    private int scanChunkSize = DEFAULT_SCAN_CHUNK_SIZE;
+    private int scanThreads = 0;
+
+    // content hash
+    private boolean hashImage = false;
+    private int hashSegmentSize = DEFAULT_HASH_SEGMENT_SIZE;
+
+    // blob store
+    private int blobThreshold = 0;
+    private boolean compressBlobs = false;
+
     ArtifactTestIngestModuleIngestJobSettings() {
     }
 
+    // settings saved by earlier versions lack the options added since; those
+    // get their defaults rather than zero, false or null
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        batchSize = fields.get("batchSize", DEFAULT_BATCH_SIZE);
+        flushIntervalMillis = fields.get("flushIntervalMillis", DEFAULT_FLUSH_INTERVAL_MILLIS);
+        writeBehind = fields.get("writeBehind", false);
+        queueCapacity = fields.get("queueCapacity", DEFAULT_QUEUE_CAPACITY);
+        skipDuplicates = fields.get("skipDuplicates", false);
+        writePriority = fields.get("writePriority", WriteScheduler.DEFAULT_PRIORITY);
+        artifactsPerDataSource = fields.get("artifactsPerDataSource", 1);
+        attributesPerArtifact = fields.get("attributesPerArtifact", 1);
+        payloadSize = fields.get("payloadSize", 0);
+        concurrency = fields.get("concurrency", 1);
+        valueTemplate = (String) fields.get("valueTemplate", ValueTemplate.DEFAULT_TEMPLATE);
+        timeFormat = (String) fields.get("timeFormat", ValueTemplate.DEFAULT_TIME_FORMAT);
+        fileNamePattern = (String) fields.get("fileNamePattern", "");
+        signatures = (String) fields.get("signatures", "");
+        scanChunkSize = fields.get("scanChunkSize", DEFAULT_SCAN_CHUNK_SIZE);
+        scanThreads = fields.get("scanThreads", 0);
+        hashImage = fields.get("hashImage", false);
+        hashSegmentSize = fields.get("hashSegmentSize", DEFAULT_HASH_SEGMENT_SIZE);
+        blobThreshold = fields.get("blobThreshold", 0);
+        compressBlobs = fields.get("compressBlobs", false);
+    }
+
+    /**
+     * Gets the number of artifacts written to the case database together.
+     *
+     * @return The batch size.
+     */
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Gets the longest time a partial batch of artifacts is held before it is
+     * written to the case database.
+     *
+     * @return The flush interval in milliseconds.
+     */
+    long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
     @Override
     public long getVersionNumber() {
         return serialVersionUID;
     }    
+
+    /**
+     * Queries whether artifacts are written by the write-behind thread of the
+     * case instead of by the ingest thread.
+     *
+     * @return True if artifacts are written behind the ingest thread.
+     */
+    boolean isWriteBehind() {
+        return writeBehind;
+    }
+
+    void setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    /**
+     * Gets the most artifacts the write-behind queue of a case holds before
+     * ingest threads wait for it.  The first job of a case sets the capacity.
+     *
+     * @return The queue capacity.
+     */
+    int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Queries whether artifacts that are already in the case database, from
+     * an earlier run over the same content, are skipped.  Load generation
+     * writes nothing new on a second run while this is set.
+     *
+     * @return True if duplicate artifacts are skipped.
+     */
+    boolean isSkipDuplicates() {
+        return skipDuplicates;
+    }
+
+    void setSkipDuplicates(boolean skipDuplicates) {
+        this.skipDuplicates = skipDuplicates;
+    }
+
+    /**
+     * Gets the weight of the share of the blackboard writes of the case the
+     * job gets while other jobs write to the same case.
+     *
+     * @return The write priority, from 1 to 100.
+     */
+    int getWritePriority() {
+        return writePriority;
+    }
+
+    void setWritePriority(int writePriority) {
+        this.writePriority = writePriority;
+    }
+
+    /**
+     * Gets the number of artifacts written for each data source.
+     *
+     * @return The artifact count.
+     */
+    int getArtifactsPerDataSource() {
+        return artifactsPerDataSource;
+    }
+
+    void setArtifactsPerDataSource(int artifactsPerDataSource) {
+        this.artifactsPerDataSource = artifactsPerDataSource;
+    }
+
+    /**
+     * Gets the number of attributes added to each artifact.
+     *
+     * @return The attribute count.
+     */
+    int getAttributesPerArtifact() {
+        return attributesPerArtifact;
+    }
+
+    void setAttributesPerArtifact(int attributesPerArtifact) {
+        this.attributesPerArtifact = attributesPerArtifact;
+    }
+
+    /**
+     * Gets the number of characters each attribute value is padded to.  Values
+     * that are already longer are not shortened.
+     *
+     * @return The payload size, or 0 for no padding.
+     */
+    int getPayloadSize() {
+        return payloadSize;
+    }
+
+    void setPayloadSize(int payloadSize) {
+        this.payloadSize = payloadSize;
+    }
+
+    /**
+     * Gets the number of threads generating artifacts for a data source.
+     *
+     * @return The number of generator threads.
+     */
+    int getConcurrency() {
+        return concurrency;
+    }
+
+    void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Gets the template of the attribute values of the generated artifacts.
+     * See {@link ValueTemplate} for its placeholders.
+     *
+     * @return The value template.
+     */
+    String getValueTemplate() {
+        return valueTemplate;
+    }
+
+    void setValueTemplate(String valueTemplate) {
+        this.valueTemplate = valueTemplate;
+    }
+
+    /**
+     * Gets the DateTimeFormatter pattern of the times in attribute values.
+     *
+     * @return The time format.
+     */
+    String getTimeFormat() {
+        return timeFormat;
+    }
+
+    void setTimeFormat(String timeFormat) {
+        this.timeFormat = timeFormat;
+    }
+
+    /**
+     * Gets the regular expression that the names of the files tagged by the
+     * file ingest module must match.
+     *
+     * @return The file name pattern, or an empty string to tag no files.
+     */
+    String getFileNamePattern() {
+        return fileNamePattern;
+    }
+
+    void setFileNamePattern(String fileNamePattern) {
+        this.fileNamePattern = fileNamePattern;
+    }
+
+    /**
+     * Gets the hex byte signatures to scan images for, separated by commas or
+     * white space.
+     *
+     * @return The signatures, or an empty string to not scan.
+     */
+    String getSignatures() {
+        return signatures;
+    }
+
+    void setSignatures(String signatures) {
+        this.signatures = signatures;
+    }
+
+    /**
+     * Gets the number of bytes of an image read at a time by the signature
+     * scan.
+     *
+     * @return The chunk size in bytes.
+     */
+    int getScanChunkSize() {
+        return scanChunkSize;
+    }
+
+    void setScanChunkSize(int scanChunkSize) {
+        this.scanChunkSize = scanChunkSize;
+    }
+
+    /**
+     * Gets the number of threads the signature scan and the content hash of
+     * an image use.
+     *
+     * @return The number of scan threads, or 0 for one per processor.
+     */
+    int getScanThreads() {
+        return scanThreads;
+    }
+
+    void setScanThreads(int scanThreads) {
+        this.scanThreads = scanThreads;
+    }
+
+    /**
+     * Queries whether the image is hashed into a SHA-256 Merkle tree whose
+     * root and segment digests are recorded on an artifact.
+     *
+     * @return True if the image is hashed.
+     */
+    boolean isHashImage() {
+        return hashImage;
+    }
+
+    void setHashImage(boolean hashImage) {
+        this.hashImage = hashImage;
+    }
+
+    /**
+     * Gets the size of the image segments whose digests are recorded, so
+     * that they can be checked one at a time.  It is rounded up to a power of
+     * two of Merkle tree leaves.
+     *
+     * @return The segment size in bytes.
+     */
+    int getHashSegmentSize() {
+        return hashSegmentSize;
+    }
+
+    void setHashSegmentSize(int hashSegmentSize) {
+        this.hashSegmentSize = hashSegmentSize;
+    }
+
+    /**
+     * Gets the length in characters from which attribute values are kept in
+     * the blob store of the case rather than in the case database.
+     *
+     * @return The threshold, or 0 to keep every value in the case database.
+     */
+    int getBlobThreshold() {
+        return blobThreshold;
+    }
+
+    void setBlobThreshold(int blobThreshold) {
+        this.blobThreshold = blobThreshold;
+    }
+
+    /**
+     * Queries whether values kept in the blob store are deflated.
+     *
+     * @return True if the values are deflated.
+     */
+    boolean isCompressBlobs() {
+        return compressBlobs;
+    }
+
+    void setCompressBlobs(boolean compressBlobs) {
+        this.compressBlobs = compressBlobs;
+    }
 }
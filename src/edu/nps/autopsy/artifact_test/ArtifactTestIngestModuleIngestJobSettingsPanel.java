@@ -0,0 +1,174 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.Insets;
+import javax.swing.JCheckBox;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JSpinner;
+import javax.swing.JTextField;
+import javax.swing.SpinnerNumberModel;
+import org.openide.util.NbBundle;
+import org.sleuthkit.autopsy.ingest.IngestModuleIngestJobSettings;
+import org.sleuthkit.autopsy.ingest.IngestModuleIngestJobSettingsPanel;
+
+/**
+ * Ingest job settings panel for the Artifact Test module.
+ */
+public class ArtifactTestIngestModuleIngestJobSettingsPanel extends IngestModuleIngestJobSettingsPanel {
+
+    private static final long serialVersionUID = 1L;
+
+    // load generation
+    private final JSpinner artifactsPerDataSourceSpinner;
+    private final JSpinner attributesPerArtifactSpinner;
+    private final JSpinner payloadSizeSpinner;
+    private final JSpinner concurrencySpinner;
+    private final JTextField valueTemplateField;
+    private final JTextField timeFormatField;
+
+    // blackboard writes
+    private final JSpinner batchSizeSpinner;
+    private final JSpinner flushIntervalSpinner;
+    private final JCheckBox writeBehindCheckBox;
+    private final JSpinner queueCapacitySpinner;
+    private final JCheckBox skipDuplicatesCheckBox;
+    private final JSpinner writePrioritySpinner;
+
+    // file ingest
+    private final JTextField fileNamePatternField;
+
+    // signature scan
+    private final JTextField signaturesField;
+    private final JSpinner scanChunkSizeSpinner;
+    private final JSpinner scanThreadsSpinner;
+
+    // content hash
+    private final JCheckBox hashImageCheckBox;
+    private final JSpinner hashSegmentSizeSpinner;
+
+    // blob store
+    private final JSpinner blobThresholdSpinner;
+    private final JCheckBox compressBlobsCheckBox;
+
+    ArtifactTestIngestModuleIngestJobSettingsPanel(ArtifactTestIngestModuleIngestJobSettings settings) {
+        artifactsPerDataSourceSpinner = new JSpinner(new SpinnerNumberModel(settings.getArtifactsPerDataSource(), 1, Integer.MAX_VALUE, 1000));
+        attributesPerArtifactSpinner = new JSpinner(new SpinnerNumberModel(settings.getAttributesPerArtifact(), 1, 1000, 1));
+        payloadSizeSpinner = new JSpinner(new SpinnerNumberModel(settings.getPayloadSize(), 0, Integer.MAX_VALUE, 64));
+        concurrencySpinner = new JSpinner(new SpinnerNumberModel(settings.getConcurrency(), 1, 256, 1));
+        valueTemplateField = new JTextField(settings.getValueTemplate(), 20);
+        timeFormatField = new JTextField(settings.getTimeFormat(), 20);
+        batchSizeSpinner = new JSpinner(new SpinnerNumberModel(settings.getBatchSize(), 1, 1000000, 100));
+        flushIntervalSpinner = new JSpinner(new SpinnerNumberModel(
+                Long.valueOf(settings.getFlushIntervalMillis()), Long.valueOf(0), Long.valueOf(Long.MAX_VALUE), Long.valueOf(500)));
+        writeBehindCheckBox = new JCheckBox(NbBundle.getMessage(getClass(), "ArtifactTestIngestModuleIngestJobSettingsPanel.writeBehind.text"),
+                settings.isWriteBehind());
+        queueCapacitySpinner = new JSpinner(new SpinnerNumberModel(settings.getQueueCapacity(), 1, Integer.MAX_VALUE, 1000));
+        skipDuplicatesCheckBox = new JCheckBox(NbBundle.getMessage(getClass(), "ArtifactTestIngestModuleIngestJobSettingsPanel.skipDuplicates.text"),
+                settings.isSkipDuplicates());
+        writePrioritySpinner = new JSpinner(new SpinnerNumberModel(settings.getWritePriority(),
+                WriteScheduler.MIN_PRIORITY, WriteScheduler.MAX_PRIORITY, 1));
+        fileNamePatternField = new JTextField(settings.getFileNamePattern(), 20);
+        signaturesField = new JTextField(settings.getSignatures(), 20);
+        scanChunkSizeSpinner = new JSpinner(new SpinnerNumberModel(settings.getScanChunkSize(), 4096, Integer.MAX_VALUE, 1024 * 1024));
+        scanThreadsSpinner = new JSpinner(new SpinnerNumberModel(settings.getScanThreads(), 0, 256, 1));
+        hashImageCheckBox = new JCheckBox(NbBundle.getMessage(getClass(), "ArtifactTestIngestModuleIngestJobSettingsPanel.hashImage.text"),
+                settings.isHashImage());
+        hashSegmentSizeSpinner = new JSpinner(new SpinnerNumberModel(settings.getHashSegmentSize(),
+                MerkleHasher.LEAF_SIZE, 1 << 30, MerkleHasher.LEAF_SIZE));
+        blobThresholdSpinner = new JSpinner(new SpinnerNumberModel(settings.getBlobThreshold(), 0, Integer.MAX_VALUE, 1024));
+        compressBlobsCheckBox = new JCheckBox(NbBundle.getMessage(getClass(), "ArtifactTestIngestModuleIngestJobSettingsPanel.compressBlobs.text"),
+                settings.isCompressBlobs());
+        initComponents();
+    }
+
+    private void initComponents() {
+        setLayout(new GridBagLayout());
+        int row = 0;
+        addRow(row++, "artifactsPerDataSource", artifactsPerDataSourceSpinner);
+        addRow(row++, "attributesPerArtifact", attributesPerArtifactSpinner);
+        addRow(row++, "payloadSize", payloadSizeSpinner);
+        addRow(row++, "concurrency", concurrencySpinner);
+        addRow(row++, "valueTemplate", valueTemplateField);
+        addRow(row++, "timeFormat", timeFormatField);
+        addRow(row++, "batchSize", batchSizeSpinner);
+        addRow(row++, "flushInterval", flushIntervalSpinner);
+        addRow(row++, null, writeBehindCheckBox);
+        addRow(row++, "queueCapacity", queueCapacitySpinner);
+        addRow(row++, null, skipDuplicatesCheckBox);
+        addRow(row++, "writePriority", writePrioritySpinner);
+        addRow(row++, "fileNamePattern", fileNamePatternField);
+        addRow(row++, "signatures", signaturesField);
+        addRow(row++, "scanChunkSize", scanChunkSizeSpinner);
+        addRow(row++, "scanThreads", scanThreadsSpinner);
+        addRow(row++, null, hashImageCheckBox);
+        addRow(row++, "hashSegmentSize", hashSegmentSizeSpinner);
+        addRow(row++, "blobThreshold", blobThresholdSpinner);
+        addRow(row++, null, compressBlobsCheckBox);
+
+        // push the rows to the top
+        GridBagConstraints filler = new GridBagConstraints();
+        filler.gridy = row;
+        filler.weighty = 1.0;
+        add(new JLabel(), filler);
+    }
+
+    // add a labeled component; the label text comes from Bundle.properties
+    private void addRow(int row, String labelKey, JComponent component) {
+        GridBagConstraints constraints = new GridBagConstraints();
+        constraints.gridy = row;
+        constraints.anchor = GridBagConstraints.LINE_START;
+        constraints.insets = new Insets(2, 5, 2, 5);
+        if (labelKey != null) {
+            constraints.gridx = 0;
+            add(new JLabel(NbBundle.getMessage(getClass(), "ArtifactTestIngestModuleIngestJobSettingsPanel." + labelKey + ".text")), constraints);
+        }
+        constraints.gridx = 1;
+        constraints.fill = GridBagConstraints.HORIZONTAL;
+        constraints.weightx = 1.0;
+        add(component, constraints);
+    }
+
+    @Override
+    public IngestModuleIngestJobSettings getSettings() {
+        ArtifactTestIngestModuleIngestJobSettings settings = new ArtifactTestIngestModuleIngestJobSettings();
+        settings.setArtifactsPerDataSource((Integer) artifactsPerDataSourceSpinner.getValue());
+        settings.setAttributesPerArtifact((Integer) attributesPerArtifactSpinner.getValue());
+        settings.setPayloadSize((Integer) payloadSizeSpinner.getValue());
+        settings.setConcurrency((Integer) concurrencySpinner.getValue());
+        settings.setValueTemplate(valueTemplateField.getText());
+        settings.setTimeFormat(timeFormatField.getText().trim());
+        settings.setBatchSize((Integer) batchSizeSpinner.getValue());
+        settings.setFlushIntervalMillis((Long) flushIntervalSpinner.getValue());
+        settings.setWriteBehind(writeBehindCheckBox.isSelected());
+        settings.setQueueCapacity((Integer) queueCapacitySpinner.getValue());
+        settings.setSkipDuplicates(skipDuplicatesCheckBox.isSelected());
+        settings.setWritePriority((Integer) writePrioritySpinner.getValue());
+        settings.setFileNamePattern(fileNamePatternField.getText().trim());
+        settings.setSignatures(signaturesField.getText().trim());
+        settings.setScanChunkSize((Integer) scanChunkSizeSpinner.getValue());
+        settings.setScanThreads((Integer) scanThreadsSpinner.getValue());
+        settings.setHashImage(hashImageCheckBox.isSelected());
+        settings.setHashSegmentSize((Integer) hashSegmentSizeSpinner.getValue());
+        settings.setBlobThreshold((Integer) blobThresholdSpinner.getValue());
+        settings.setCompressBlobs(compressBlobsCheckBox.isSelected());
+        return settings;
+    }
+}
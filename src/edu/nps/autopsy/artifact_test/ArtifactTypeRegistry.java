@@ -0,0 +1,197 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.datamodel.SleuthkitCase;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Per-case cache of the ARTIFACT_TEST artifact type ID and ATTRIBUTE_TEST
+ * attribute type ID.
+ * <p>
+ * The types are looked up, and added to the case database if missing, at most
+ * once per case.  Reading the cache after that does not lock.  A failed
+ * registration is not cached, so it fails only the jobs waiting on it and the
+ * next job tries again.
+ * <p>
+ * Registration runs on a single schema thread, never on the thread that asks
+ * for the types, so schema changes are serialized and stay off the ingest job
+ * start thread.  Once listening, the registry starts the registration as soon
+ * as a case opens, so by the time an ingest module starts up it only collects
+ * a finished result.
+ */
+final class ArtifactTypeRegistry {
+
+    static final String ARTIFACT_TYPE_NAME = "ARTIFACT_TEST";
+    static final String ARTIFACT_TYPE_DISPLAY_NAME = "Artifact for Artifact Test";
+    static final String ATTRIBUTE_TYPE_NAME = "ATTRIBUTE_TEST";
+    static final String ATTRIBUTE_TYPE_DISPLAY_NAME = "Attribute for Artifact Test";
+
+    private static final Logger logger = Logger.getLogger(ArtifactTypeRegistry.class.getName());
+    private static final ConcurrentMap<SleuthkitCase, Future<Types>> registrations
+            = new ConcurrentHashMap<SleuthkitCase, Future<Types>>();
+
+    // the only thread that changes the case database schema
+    private static final ExecutorService schemaExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ArtifactTest-schema");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final PropertyChangeListener caseListener = new PropertyChangeListener() {
+        @Override
+        public void propertyChange(PropertyChangeEvent event) {
+            if (Case.Events.CURRENT_CASE.toString().equals(event.getPropertyName())) {
+                // only one case is open at a time
+                registrations.clear();
+                if (event.getNewValue() instanceof Case) {
+                    registerInBackground(((Case) event.getNewValue()).getSleuthkitCase());
+                }
+            }
+        }
+    };
+
+    /**
+     * The blackboard type IDs of the module in one case.
+     */
+    static final class Types {
+
+        private final int artifactTypeID;
+        private final int attributeTypeID;
+
+        Types(int artifactTypeID, int attributeTypeID) {
+            this.artifactTypeID = artifactTypeID;
+            this.attributeTypeID = attributeTypeID;
+        }
+
+        int getArtifactTypeID() {
+            return artifactTypeID;
+        }
+
+        int getAttributeTypeID() {
+            return attributeTypeID;
+        }
+    }
+
+    private ArtifactTypeRegistry() {
+    }
+
+    /**
+     * Starts registering the types of each case as it opens, beginning with
+     * the current case if there is one.
+     */
+    static void startListening() {
+        Case.addPropertyChangeListener(caseListener);
+        if (Case.isCaseOpen()) {
+            registerInBackground(Case.getCurrentCase().getSleuthkitCase());
+        }
+    }
+
+    /**
+     * Stops registering types as cases open.
+     */
+    static void stopListening() {
+        Case.removePropertyChangeListener(caseListener);
+    }
+
+    /**
+     * Gets the type IDs for a case, waiting for the registration of the types
+     * with the case database if it has not finished yet.
+     *
+     * @param sleuthkitCase The case database.
+     * @return The type IDs.
+     * @throws TskCoreException If looking up or adding the types fails.
+     */
+    static Types getTypes(SleuthkitCase sleuthkitCase) throws TskCoreException {
+        Future<Types> registration = registrations.get(sleuthkitCase);
+        if (registration == null) {
+            // the case opened before the registry started listening
+            registration = registerInBackground(sleuthkitCase);
+        }
+        return await(sleuthkitCase, registration);
+    }
+
+    /**
+     * Queues the registration of the types with a case database on the schema
+     * thread unless it is already registered or queued.
+     *
+     * @param sleuthkitCase The case database.
+     * @return The pending or finished registration.
+     */
+    static Future<Types> registerInBackground(final SleuthkitCase sleuthkitCase) {
+        FutureTask<Types> task = new FutureTask<Types>(new Callable<Types>() {
+            @Override
+            public Types call() throws TskCoreException {
+                return register(sleuthkitCase);
+            }
+        });
+        Future<Types> registration = registrations.putIfAbsent(sleuthkitCase, task);
+        if (registration == null) {
+            registration = task;
+            schemaExecutor.execute(task);
+        }
+        return registration;
+    }
+
+    // wait for a registration, forgetting it if it failed
+    private static Types await(SleuthkitCase sleuthkitCase, Future<Types> registration) throws TskCoreException {
+        try {
+            return registration.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TskCoreException("Interrupted while waiting for blackboard type registration");
+        } catch (ExecutionException ex) {
+            registrations.remove(sleuthkitCase, registration);
+            if (ex.getCause() instanceof TskCoreException) {
+                throw (TskCoreException) ex.getCause();
+            }
+            throw new TskCoreException("Failed to register blackboard types", ex.getCause());
+        }
+    }
+
+    // look up the types, adding any that are missing
+    private static Types register(SleuthkitCase sleuthkitCase) throws TskCoreException {
+        int artifactTypeID = sleuthkitCase.getArtifactTypeID(ARTIFACT_TYPE_NAME);
+        if (artifactTypeID == -1) {
+            artifactTypeID = sleuthkitCase.addArtifactType(ARTIFACT_TYPE_NAME, ARTIFACT_TYPE_DISPLAY_NAME);
+        }
+        int attributeTypeID = sleuthkitCase.getAttrTypeID(ATTRIBUTE_TYPE_NAME);
+        if (attributeTypeID == -1) {
+            attributeTypeID = sleuthkitCase.addAttrType(ATTRIBUTE_TYPE_NAME, ATTRIBUTE_TYPE_DISPLAY_NAME);
+        }
+        logger.log(Level.INFO, "Registered blackboard types {0}={1} and {2}={3}",
+                new Object[]{ARTIFACT_TYPE_NAME, artifactTypeID, ATTRIBUTE_TYPE_NAME, attributeTypeID});
+        return new Types(artifactTypeID, attributeTypeID);
+    }
+}
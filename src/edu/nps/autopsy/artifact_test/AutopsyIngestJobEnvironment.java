@@ -0,0 +1,71 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.ingest.IngestJobContext;
+import org.sleuthkit.autopsy.ingest.IngestMessage;
+import org.sleuthkit.autopsy.ingest.IngestServices;
+import org.sleuthkit.datamodel.SleuthkitCase;
+
+/**
+ * The environment of an ingest job run by Autopsy.
+ */
+final class AutopsyIngestJobEnvironment implements IngestJobEnvironment {
+
+    private static final String moduleName = ArtifactTestIngestModuleFactory.getModuleName();
+
+    private final IngestJobContext context;
+
+    AutopsyIngestJobEnvironment(IngestJobContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public long getJobId() {
+        return context.getJobId();
+    }
+
+    @Override
+    public boolean isJobCancelled() {
+        return context.isJobCancelled();
+    }
+
+    @Override
+    public SleuthkitCase getSleuthkitCase() {
+        return Case.getCurrentCase().getSleuthkitCase();
+    }
+
+    @Override
+    public Path getModuleOutputDirectory() {
+        return Paths.get(Case.getCurrentCase().getModulesOutputDirAbsPath(),
+                ArtifactTestIngestModuleFactory.getModuleOutputDirectoryName());
+    }
+
+    @Override
+    public Logger getLogger() {
+        return IngestServices.getInstance().getLogger(moduleName);
+    }
+
+    @Override
+    public void postMessage(IngestMessage message) {
+        IngestServices.getInstance().postMessage(message);
+    }
+}
@@ -0,0 +1,299 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.datamodel.BlackboardAttribute;
+import org.sleuthkit.datamodel.Content;
+import org.sleuthkit.datamodel.SleuthkitCase;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Collects blackboard artifacts and their attributes and writes them to the
+ * case database in batches.
+ * <p>
+ * A batch is written when it reaches the batch size or when the flush interval
+ * has passed since the last write, whichever comes first; a timer writes a
+ * partial batch on time even if no more artifacts are added.  The whole batch
+ * is written while holding the case database write lock, so the batch costs
+ * one lock acquisition instead of one per artifact and other writers cannot
+ * interleave with it.  The TSK API in use has no case database transactions
+ * for artifacts, so each artifact and its attributes are still committed on
+ * their own; a batch is not one transaction.  Before taking the lock the
+ * writer waits for the turn of its job from the write scheduler of the case,
+ * so that concurrent jobs share the writes fairly.  Callers must call close()
+ * when they are done so that the last partial batch is written.
+ * <p>
+ * A batch that fails is not written again.  Its error is kept until the
+ * writer is closed: every later call, including flush() and close(), throws
+ * it, so no caller takes a flush that returns for artifacts that were lost.
+ */
+final class BlackboardBatchWriter implements ArtifactSink {
+
+    // writes the partial batches of every writer whose flush interval passes
+    private static final ScheduledExecutorService flushTimer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ArtifactTest-flush-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final SleuthkitCase sleuthkitCase;
+    private final int artifactTypeID;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final Logger logger;
+    private final IngestJobMetrics metrics;
+    private final WriteScheduler.JobShare share;
+    private final List<ArtifactRecord> batch;
+    private long lastFlushNanos;
+
+    // the timed flush, or null if the interval is not timed
+    private final ScheduledFuture<?> flushTask;
+
+    // the first write error and the number of artifacts lost to errors; once
+    // set, every call throws
+    private TskCoreException firstError;
+    private long errorCount;
+
+    // statistics
+    private final long startNanos;
+    private long artifactCount;
+    private long attributeCount;
+    private long batchCount;
+
+    /**
+     * Creates a batch writer.
+     *
+     * @param sleuthkitCase The case database to write to.
+     * @param artifactTypeID The type of the artifacts to create.
+     * @param batchSize The number of artifacts to collect before writing.
+     * @param flushIntervalMillis The longest time to hold a partial batch,
+     * 0 to write every artifact as it is added, or Long.MAX_VALUE to hold it
+     * until the batch is full or flushed.
+     * @param logger The logger of the ingest module using the writer.
+     * @param metrics Where to record the latencies of the writes.
+     * @param share The share of the writes of the case of the job, which the
+     * writer closes when it is closed.
+     */
+    BlackboardBatchWriter(SleuthkitCase sleuthkitCase, int artifactTypeID,
+            int batchSize, long flushIntervalMillis, Logger logger, IngestJobMetrics metrics,
+            WriteScheduler.JobShare share) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.sleuthkitCase = sleuthkitCase;
+        this.artifactTypeID = artifactTypeID;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.logger = logger;
+        this.metrics = metrics;
+        this.share = share;
+        this.batch = new ArrayList<ArtifactRecord>(batchSize);
+        this.startNanos = System.nanoTime();
+        this.lastFlushNanos = startNanos;
+        if (flushIntervalMillis > 0 && flushIntervalMillis < Long.MAX_VALUE) {
+            this.flushTask = flushTimer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    flushIfDue();
+                }
+            }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.flushTask = null;
+        }
+    }
+
+    // write a partial batch that has been held for the flush interval; the
+    // error, if any, is kept for the callers
+    private synchronized void flushIfDue() {
+        if (batch.isEmpty() || System.nanoTime() - lastFlushNanos < flushIntervalNanos) {
+            return;
+        }
+        try {
+            flush();
+        } catch (TskCoreException ex) {
+            // kept in firstError
+        }
+    }
+
+    // discard the unwritten part of the batch, keeping the error
+    private void lose(TskCoreException error, int lostCount) {
+        if (firstError == null) {
+            firstError = error;
+        }
+        errorCount += lostCount;
+        batch.clear();
+    }
+
+    private void throwFirstError() throws TskCoreException {
+        if (firstError != null) {
+            throw new TskCoreException(String.format("%d blackboard artifacts were not written", errorCount), firstError);
+        }
+    }
+
+    /**
+     * Adds an artifact to the current batch, writing the batch if it is full
+     * or the flush interval has passed.
+     *
+     * @param content The content the artifact belongs to.
+     * @param attributes The attributes of the artifact.
+     * @throws TskCoreException If writing the batch fails, or any earlier
+     * batch failed.
+     */
+    @Override
+    public synchronized void add(Content content, Collection<BlackboardAttribute> attributes) throws TskCoreException {
+        throwFirstError();
+        batch.add(new ArtifactRecord(content, attributes));
+        if (batch.size() >= batchSize || System.nanoTime() - lastFlushNanos >= flushIntervalNanos) {
+            flush();
+        }
+    }
+
+    /**
+     * Adds artifacts to the current batch, writing the batch if it is full or
+     * the flush interval has passed.
+     *
+     * @param records The artifacts.
+     * @throws TskCoreException If writing the batch fails, or any earlier
+     * batch failed.
+     */
+    @Override
+    public synchronized void addAll(List<ArtifactRecord> records) throws TskCoreException {
+        throwFirstError();
+        batch.addAll(records);
+        if (batch.size() >= batchSize || System.nanoTime() - lastFlushNanos >= flushIntervalNanos) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the current batch to the case database.  The part of the batch
+     * that was not written is discarded if the write fails, and the error is
+     * thrown by every later call.
+     *
+     * @throws TskCoreException If creating an artifact or adding its
+     * attributes fails, now, in an earlier flush or in a timed flush, or the
+     * wait for the turn of the job is interrupted.
+     */
+    @Override
+    public synchronized void flush() throws TskCoreException {
+        lastFlushNanos = System.nanoTime();
+        throwFirstError();
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            share.acquire(batch.size());
+        } catch (TskCoreException ex) {
+            lose(ex, batch.size());
+            throw ex;
+        }
+        long startNanos = System.nanoTime();
+        int writtenCount = 0;
+        sleuthkitCase.acquireExclusiveLock();
+        try {
+            for (ArtifactRecord record : batch) {
+                record.write(artifactTypeID, metrics);
+                writtenCount++;
+                artifactCount++;
+                attributeCount += record.getAttributes().size();
+            }
+            batchCount++;
+        } catch (TskCoreException ex) {
+            lose(ex, batch.size() - writtenCount);
+            throw ex;
+        } finally {
+            sleuthkitCase.releaseExclusiveLock();
+            share.release();
+            metrics.batchWrite.recordSince(startNanos);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes the last partial batch, logs the throughput of the writer and
+     * closes its share of the writes of the case.
+     *
+     * @throws TskCoreException If writing the last batch fails, or any
+     * earlier batch failed.
+     */
+    @Override
+    public synchronized void close() throws TskCoreException {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+        try {
+            flush();
+        } finally {
+            logger.log(Level.INFO, getSummary());
+            share.close();
+        }
+    }
+
+    synchronized long getArtifactCount() {
+        return artifactCount;
+    }
+
+    synchronized long getAttributeCount() {
+        return attributeCount;
+    }
+
+    /**
+     * Gets the number of batches written, each under one acquisition of the
+     * case database write lock.
+     *
+     * @return The batch count.
+     */
+    synchronized long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * Gets the number of artifacts written per second since the writer was
+     * created.
+     *
+     * @return The artifact throughput.
+     */
+    synchronized double getArtifactsPerSecond() {
+        long elapsedNanos = Math.max(1, System.nanoTime() - startNanos);
+        return artifactCount * 1.0e9 / elapsedNanos;
+    }
+
+    /**
+     * Gets a one line summary of what the writer has written.
+     *
+     * @return The summary.
+     */
+    @Override
+    public synchronized String getSummary() {
+        return String.format("wrote %d artifacts (%d attributes) in %d batches, %d failed, %.1f artifacts/sec, %s",
+                artifactCount, attributeCount, batchCount, errorCount, getArtifactsPerSecond(), share.getSummary());
+    }
+}
@@ -0,0 +1,455 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.coreutils.Logger;
+
+/**
+ * An append-only store of large attribute payloads, kept in one file in the
+ * module output directory of a case so that they stay out of the case
+ * database.  The attribute holds a short reference instead:
+ * <pre>
+ * blob:&lt;offset&gt;:&lt;stored length&gt;:&lt;length&gt;:&lt;d|r&gt;:&lt;SHA-256 of the payload&gt;
+ * </pre>
+ * where d marks a deflated payload and r a raw one.
+ * <p>
+ * A value is taken for a reference only if it has exactly this form and is
+ * the reference of a payload in the store.  The blob-storing sink stores
+ * every value of this form, whatever its length, so such a value never
+ * reaches the case database inline.
+ * <p>
+ * The store is content addressed: a payload that is already stored gets the
+ * reference of the stored copy, so identical payloads are stored once and
+ * have identical references.  Each payload is preceded in the file by a
+ * header with its lengths and hash, from which the store rebuilds its index
+ * of hashes when it is opened; a partial record left by a crash is cut off.
+ * <p>
+ * Payloads are read through memory-mapped regions of the file.  Reading a
+ * raw payload returns a read-only view of the mapped file, without copying.
+ */
+final class BlobStore {
+
+    private static final Logger logger = Logger.getLogger(BlobStore.class.getName());
+
+    private static final String FILE_NAME = "blobs.dat";
+    private static final String REFERENCE_PREFIX = "blob:";
+    private static final Pattern REFERENCE = Pattern.compile(
+            "blob:(\\d{1,19}):(\\d{1,10}):(\\d{1,10}):([dr]):([0-9a-f]{64})");
+    private static final int RECORD_MAGIC = 0x41544231; // "ATB1"
+    private static final byte RAW = 'r';
+    private static final byte DEFLATED = 'd';
+    private static final int HASH_LENGTH = 32;
+    private static final int HEADER_LENGTH = 4 + 1 + 4 + 4 + HASH_LENGTH;
+
+    // the size of the regions of the file that are mapped and kept
+    private static final long REGION_SIZE = 64L * 1024 * 1024;
+
+    // the open stores, by directory
+    private static final ConcurrentMap<Path, BlobStore> stores = new ConcurrentHashMap<Path, BlobStore>();
+
+    // close the stores of a case when it is closed
+    private static final PropertyChangeListener caseListener = new PropertyChangeListener() {
+        @Override
+        public void propertyChange(PropertyChangeEvent event) {
+            if (Case.Events.CURRENT_CASE.toString().equals(event.getPropertyName())) {
+                closeAll();
+            }
+        }
+    };
+
+    // per thread, so that payloads are hashed and compressed outside the lock
+    private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException ex) {
+                // every Java platform has SHA-256
+                throw new IllegalStateException(ex);
+            }
+        }
+    };
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED);
+        }
+    };
+
+    private final Path file;
+    private final FileChannel channel;
+
+    // the offset after the last record
+    private long end;
+
+    // the reference of each stored payload, by the hex of its hash
+    private final ConcurrentMap<String, String> references = new ConcurrentHashMap<String, String>();
+
+    // mapped regions, by index
+    private final ConcurrentMap<Long, MappedByteBuffer> regions = new ConcurrentHashMap<Long, MappedByteBuffer>();
+
+    private BlobStore(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.end = loadIndex();
+    }
+
+    /**
+     * Gets the store kept in a directory, opening it if need be.
+     *
+     * @param directory The directory of the module in the module output
+     * directory of a case.
+     * @return The store.
+     * @throws IOException If the store cannot be opened.
+     */
+    static BlobStore forDirectory(Path directory) throws IOException {
+        Path key = directory.toAbsolutePath().normalize();
+        BlobStore store = stores.get(key);
+        if (store != null) {
+            return store;
+        }
+        synchronized (stores) {
+            store = stores.get(key);
+            if (store == null) {
+                Files.createDirectories(key);
+                store = new BlobStore(key.resolve(FILE_NAME));
+                stores.put(key, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Gets the store in a directory if there is one, without creating it.
+     *
+     * @param directory The directory of the module in the module output
+     * directory of a case.
+     * @return The store, or null if the directory has no store.
+     * @throws IOException If the store cannot be opened.
+     */
+    static BlobStore forExistingDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory.resolve(FILE_NAME))) {
+            return null;
+        }
+        return forDirectory(directory);
+    }
+
+    /**
+     * Closes every open store.
+     */
+    static void closeAll() {
+        synchronized (stores) {
+            for (BlobStore store : stores.values()) {
+                store.close();
+            }
+            stores.clear();
+        }
+    }
+
+    /**
+     * Starts closing the stores of a case when it is closed.
+     */
+    static void startListening() {
+        Case.addPropertyChangeListener(caseListener);
+    }
+
+    /**
+     * Stops listening for case changes.
+     */
+    static void stopListening() {
+        Case.removePropertyChangeListener(caseListener);
+    }
+
+    /**
+     * Tells whether an attribute value has the form of a reference to a
+     * stored payload.
+     *
+     * @param value The attribute value.
+     * @return True if the value has the form of a reference.
+     */
+    static boolean isReference(String value) {
+        return REFERENCE.matcher(value).matches();
+    }
+
+    /**
+     * Gets the attribute value that was stored for a value read from the
+     * case database.
+     *
+     * @param value The attribute value in the case database.
+     * @return The stored payload if the value is the reference of a payload
+     * in this store, otherwise the value itself.
+     * @throws IOException If reading the file fails.
+     */
+    String resolve(String value) throws IOException {
+        Matcher matcher = REFERENCE.matcher(value);
+        if (!matcher.matches() || !value.equals(references.get(matcher.group(5)))) {
+            return value;
+        }
+        return readString(value);
+    }
+
+    /**
+     * Stores a payload, or finds the stored copy of it.
+     *
+     * @param value The payload.
+     * @param compress Whether to deflate the payload, which is stored raw
+     * anyway if deflating does not make it smaller.
+     * @return The reference to the payload.
+     * @throws IOException If writing the file fails.
+     */
+    String put(String value, boolean compress) throws IOException {
+        byte[] payload = value.getBytes(StandardCharsets.UTF_8);
+        MessageDigest digest = digests.get();
+        byte[] hash = digest.digest(payload);
+        String hex = MerkleHasher.toHex(hash);
+        String reference = references.get(hex);
+        if (reference != null) {
+            return reference;
+        }
+
+        byte codec = RAW;
+        byte[] stored = payload;
+        int storedLength = payload.length;
+        if (compress) {
+            Deflater deflater = deflaters.get();
+            deflater.reset();
+            deflater.setInput(payload);
+            deflater.finish();
+            byte[] deflated = new byte[payload.length];
+            int length = 0;
+            while (!deflater.finished() && length < deflated.length) {
+                length += deflater.deflate(deflated, length, deflated.length - length);
+            }
+            if (deflater.finished() && length < payload.length) {
+                codec = DEFLATED;
+                stored = deflated;
+                storedLength = length;
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(RECORD_MAGIC).put(codec).putInt(storedLength).putInt(payload.length).put(hash);
+        header.flip();
+        ByteBuffer body = ByteBuffer.wrap(stored, 0, storedLength);
+        synchronized (this) {
+            // another thread may have stored it meanwhile
+            reference = references.get(hex);
+            if (reference != null) {
+                return reference;
+            }
+            long offset = end;
+            long position = offset;
+            while (header.hasRemaining()) {
+                position += channel.write(header, position);
+            }
+            while (body.hasRemaining()) {
+                position += channel.write(body, position);
+            }
+            end = position;
+            reference = toReference(offset + HEADER_LENGTH, storedLength, payload.length, codec, hex);
+            references.put(hex, reference);
+            return reference;
+        }
+    }
+
+    /**
+     * Reads a payload.  A raw payload is a read-only view of the mapped
+     * file; a deflated one is inflated into a new buffer.
+     *
+     * @param reference The reference to the payload.
+     * @return The payload bytes, from position to limit.
+     * @throws IOException If the reference is bad or reading the file fails.
+     */
+    ByteBuffer read(String reference) throws IOException {
+        String[] fields = parse(reference);
+        long offset;
+        int storedLength;
+        int length;
+        try {
+            offset = Long.parseLong(fields[0]);
+            storedLength = Integer.parseInt(fields[1]);
+            length = Integer.parseInt(fields[2]);
+        } catch (NumberFormatException ex) {
+            throw new IOException("Not a payload reference: " + reference, ex);
+        }
+        ByteBuffer stored = map(offset, storedLength);
+        if (fields[3].charAt(0) == RAW) {
+            return stored;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            byte[] input = new byte[storedLength];
+            stored.get(input);
+            inflater.setInput(input);
+            byte[] payload = new byte[length];
+            int inflated = 0;
+            while (inflated < length && !inflater.finished()) {
+                int n = inflater.inflate(payload, inflated, length - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != length) {
+                throw new IOException("Payload " + reference + " is damaged");
+            }
+            return ByteBuffer.wrap(payload).asReadOnlyBuffer();
+        } catch (DataFormatException ex) {
+            throw new IOException("Payload " + reference + " is damaged", ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Reads a payload as text.
+     *
+     * @param reference The reference to the payload.
+     * @return The attribute value that was stored.
+     * @throws IOException If the reference is bad or reading the file fails.
+     */
+    String readString(String reference) throws IOException {
+        return StandardCharsets.UTF_8.decode(read(reference)).toString();
+    }
+
+    /**
+     * Checks a payload against the hash in its reference.
+     *
+     * @param reference The reference to the payload.
+     * @return True if the payload has the hash.
+     * @throws IOException If the reference is bad or reading the file fails.
+     */
+    boolean verify(String reference) throws IOException {
+        MessageDigest digest = digests.get();
+        digest.update(read(reference));
+        return MerkleHasher.toHex(digest.digest()).equals(parse(reference)[4]);
+    }
+
+    /**
+     * Forces the stored payloads to the disk.
+     *
+     * @throws IOException If forcing the file fails.
+     */
+    void sync() throws IOException {
+        channel.force(false);
+    }
+
+    private void close() {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Failed to close " + file, ex);
+        }
+        regions.clear();
+    }
+
+    // a view of part of the file, from a kept region if it lies in a
+    // written one
+    private ByteBuffer map(long offset, int length) throws IOException {
+        long regionIndex = offset / REGION_SIZE;
+        long regionStart = regionIndex * REGION_SIZE;
+        if (offset + length > regionStart + REGION_SIZE || regionStart + REGION_SIZE > channel.size()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).asReadOnlyBuffer();
+        }
+        MappedByteBuffer region = regions.get(regionIndex);
+        if (region == null) {
+            region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, REGION_SIZE);
+            MappedByteBuffer existing = regions.putIfAbsent(regionIndex, region);
+            if (existing != null) {
+                region = existing;
+            }
+        }
+        ByteBuffer view = region.asReadOnlyBuffer();
+        view.position((int) (offset - regionStart));
+        view.limit((int) (offset - regionStart) + length);
+        return view.slice();
+    }
+
+    // rebuild the hash index from the record headers, cutting off a partial
+    // record at the end
+    private long loadIndex() throws IOException {
+        long size = channel.size();
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        while (offset + HEADER_LENGTH <= size) {
+            header.clear();
+            while (header.hasRemaining()) {
+                if (channel.read(header, offset + header.position()) < 0) {
+                    break;
+                }
+            }
+            header.flip();
+            if (header.getInt() != RECORD_MAGIC) {
+                break;
+            }
+            byte codec = header.get();
+            int storedLength = header.getInt();
+            int length = header.getInt();
+            byte[] hash = new byte[HASH_LENGTH];
+            header.get(hash);
+            if (offset + HEADER_LENGTH + storedLength > size) {
+                break;
+            }
+            String hex = MerkleHasher.toHex(hash);
+            references.put(hex, toReference(offset + HEADER_LENGTH, storedLength, length, codec, hex));
+            offset += HEADER_LENGTH + storedLength;
+        }
+        if (offset < size) {
+            logger.log(Level.WARNING, String.format("Cutting off %d bytes of a partial record at the end of %s",
+                    size - offset, file));
+            channel.truncate(offset);
+        }
+        return offset;
+    }
+
+    private static String toReference(long offset, int storedLength, int length, byte codec, String hex) {
+        return REFERENCE_PREFIX + offset + ":" + storedLength + ":" + length + ":" + (char) codec + ":" + hex;
+    }
+
+    private static String[] parse(String reference) throws IOException {
+        Matcher matcher = REFERENCE.matcher(reference);
+        if (!matcher.matches()) {
+            throw new IOException("Not a payload reference: " + reference);
+        }
+        String[] fields = new String[5];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = matcher.group(i + 1);
+        }
+        return fields;
+    }
+}
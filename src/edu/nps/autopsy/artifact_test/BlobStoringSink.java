@@ -0,0 +1,133 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.sleuthkit.datamodel.BlackboardAttribute;
+import org.sleuthkit.datamodel.Content;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * An artifact sink that moves attribute values at or above a size threshold
+ * to the blob store of the case, passing on a reference in their place.
+ * Smaller values are passed on as they are, except values that have the form
+ * of a reference, which are always stored so that they cannot be taken for
+ * one when read back.
+ */
+final class BlobStoringSink implements ArtifactSink {
+
+    private final ArtifactSink sink;
+    private final BlobStore store;
+    private final int threshold;
+    private final boolean compress;
+    private final AtomicLong storedCount = new AtomicLong();
+    private final AtomicLong storedChars = new AtomicLong();
+
+    /**
+     * Creates a sink.
+     *
+     * @param sink The sink the artifacts are passed on to.
+     * @param store The blob store of the case.
+     * @param threshold The length in characters from which values are
+     * stored in the blob store.
+     * @param compress Whether to deflate the stored values.
+     */
+    BlobStoringSink(ArtifactSink sink, BlobStore store, int threshold, boolean compress) {
+        this.sink = sink;
+        this.store = store;
+        this.threshold = threshold;
+        this.compress = compress;
+    }
+
+    @Override
+    public void add(Content content, Collection<BlackboardAttribute> attributes) throws TskCoreException {
+        sink.add(content, storeLargeValues(attributes));
+    }
+
+    @Override
+    public void addAll(List<ArtifactRecord> records) throws TskCoreException {
+        List<ArtifactRecord> storedRecords = new ArrayList<ArtifactRecord>(records.size());
+        for (ArtifactRecord record : records) {
+            Collection<BlackboardAttribute> attributes = storeLargeValues(record.getAttributes());
+            storedRecords.add(attributes == record.getAttributes() ? record : new ArtifactRecord(record.getContent(), attributes));
+        }
+        sink.addAll(storedRecords);
+    }
+
+    /**
+     * Forces the stored values to the disk, then flushes the artifacts that
+     * refer to them.
+     *
+     * @throws TskCoreException If either fails.
+     */
+    @Override
+    public void flush() throws TskCoreException {
+        syncStore();
+        sink.flush();
+    }
+
+    @Override
+    public void close() throws TskCoreException {
+        syncStore();
+        sink.close();
+    }
+
+    @Override
+    public String getSummary() {
+        return sink.getSummary() + String.format(", moved %d values (%d characters) to the blob store",
+                storedCount.get(), storedChars.get());
+    }
+
+    // the attributes, with the large values and the values that look like
+    // references replaced by references; the same collection if none is
+    private Collection<BlackboardAttribute> storeLargeValues(Collection<BlackboardAttribute> attributes)
+            throws TskCoreException {
+        List<BlackboardAttribute> stored = null;
+        int i = 0;
+        for (BlackboardAttribute attribute : attributes) {
+            String value = attribute.getValueString();
+            if (value != null && (value.length() >= threshold || BlobStore.isReference(value))) {
+                if (stored == null) {
+                    // copy the small values seen so far
+                    stored = new ArrayList<BlackboardAttribute>(attributes);
+                }
+                try {
+                    stored.set(i, new BlackboardAttribute(attribute.getAttributeTypeID(), attribute.getModuleName(),
+                            store.put(value, compress)));
+                } catch (IOException ex) {
+                    throw new TskCoreException("Failed to store an attribute value in the blob store", ex);
+                }
+                storedCount.incrementAndGet();
+                storedChars.addAndGet(value.length());
+            }
+            i++;
+        }
+        return stored != null ? stored : attributes;
+    }
+
+    private void syncStore() throws TskCoreException {
+        try {
+            store.sync();
+        } catch (IOException ex) {
+            throw new TskCoreException("Failed to write the blob store", ex);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.sleuthkit.datamodel.Content;
+import org.sleuthkit.datamodel.SleuthkitCase;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Visits every content under a root in parallel, with work stealing.
+ * <p>
+ * The tree is walked lazily: a node lists only the object IDs of its
+ * children, and a child is read from the case database when it is visited.
+ * Children are forked as tasks only while the frontier of forked but
+ * unfinished tasks is below a bound; past it a worker visits the child
+ * itself, depth first.  Memory use is therefore bounded by the frontier and
+ * the depth of the tree rather than by its size.
+ * <p>
+ * Visitors run on the workers of the traversal's fork-join pool, so they may
+ * fork further work into it, see {@link SignatureScanner#scanInPool}.
+ */
+final class ContentTraversal {
+
+    // forked tasks per worker thread
+    private static final int FRONTIER_PER_THREAD = 64;
+
+    private final SleuthkitCase sleuthkitCase;
+    private final int threadCount;
+    private final AtomicLong discoveredCount = new AtomicLong();
+    private final AtomicLong visitedCount = new AtomicLong();
+
+    /**
+     * Receives the contents of the tree.  Called from several threads at
+     * once.
+     */
+    interface Visitor {
+
+        /**
+         * Called once for each content, the root included.
+         *
+         * @param content The content.
+         * @throws TskCoreException If handling the content fails; the
+         * traversal stops.
+         */
+        void visit(Content content) throws TskCoreException;
+    }
+
+    /**
+     * Tells the traversal to stop early.
+     */
+    interface Cancellation {
+
+        boolean isCancelled();
+    }
+
+    /**
+     * Creates a traversal.
+     *
+     * @param sleuthkitCase The case the contents are read from.
+     * @param threadCount The number of worker threads, or 0 for one per
+     * processor.
+     */
+    ContentTraversal(SleuthkitCase sleuthkitCase, int threadCount) {
+        this.sleuthkitCase = sleuthkitCase;
+        this.threadCount = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Gets the number of contents found so far, the root included.  The
+     * count grows as the traversal runs.
+     *
+     * @return The number of contents discovered.
+     */
+    long getDiscoveredCount() {
+        return discoveredCount.get();
+    }
+
+    /**
+     * Gets the number of contents visited so far.
+     *
+     * @return The number of contents visited.
+     */
+    long getVisitedCount() {
+        return visitedCount.get();
+    }
+
+    /**
+     * Visits a tree and waits for the traversal to finish.
+     *
+     * @param root The root of the tree.
+     * @param visitor Receives the contents.
+     * @param cancellation Checked before each content.
+     * @param progress Run on the calling thread a few times a second while
+     * the traversal runs, to report progress.
+     * @throws TskCoreException If reading the tree or the visitor fails.
+     */
+    void traverse(Content root, Visitor visitor, Cancellation cancellation, Runnable progress)
+            throws TskCoreException {
+        discoveredCount.incrementAndGet();
+        Semaphore frontier = new Semaphore(threadCount * FRONTIER_PER_THREAD);
+        AtomicReference<TskCoreException> failure = new AtomicReference<TskCoreException>();
+        ForkJoinPool pool = new ForkJoinPool(threadCount);
+        try {
+            ForkJoinTask<Void> task = pool.submit(new NodeTask(root, -1, frontier, visitor, cancellation, failure, false));
+            while (!isDone(task)) {
+                progress.run();
+            }
+            task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TskCoreException("Interrupted while visiting " + root.getName());
+        } catch (ExecutionException ex) {
+            throw new TskCoreException("Failed to visit " + root.getName(), ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    // wait a moment for a traversal to finish
+    private static boolean isDone(ForkJoinTask<?> task) throws InterruptedException {
+        try {
+            task.get(250, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException ex) {
+            return false;
+        } catch (ExecutionException ex) {
+            return true;
+        }
+    }
+
+    // visits a content, then its children
+    private final class NodeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        // the content, or null to read it by object ID
+        private final Content content;
+        private final long objectID;
+        private final Semaphore frontier;
+        private final Visitor visitor;
+        private final Cancellation cancellation;
+        private final AtomicReference<TskCoreException> failure;
+
+        // whether the task holds a frontier permit
+        private final boolean forked;
+
+        NodeTask(Content content, long objectID, Semaphore frontier, Visitor visitor, Cancellation cancellation,
+                AtomicReference<TskCoreException> failure, boolean forked) {
+            this.content = content;
+            this.objectID = objectID;
+            this.frontier = frontier;
+            this.visitor = visitor;
+            this.cancellation = cancellation;
+            this.failure = failure;
+            this.forked = forked;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                visitTree();
+            } catch (TskCoreException ex) {
+                failure.compareAndSet(null, ex);
+            } finally {
+                if (forked) {
+                    frontier.release();
+                }
+            }
+        }
+
+        private void visitTree() throws TskCoreException {
+            if (failure.get() != null || cancellation.isCancelled()) {
+                return;
+            }
+            Content node = content != null ? content : sleuthkitCase.getContentById(objectID);
+            if (node == null) {
+                throw new TskCoreException("No content with object ID " + objectID);
+            }
+            visitor.visit(node);
+            visitedCount.incrementAndGet();
+            if (!node.hasChildren()) {
+                return;
+            }
+
+            // fork the children while the frontier has room, visit the rest
+            // on this thread
+            List<Long> childIDs = node.getChildrenIds();
+            discoveredCount.addAndGet(childIDs.size());
+            List<ForkJoinTask<Void>> forkedTasks = new ArrayList<ForkJoinTask<Void>>();
+            for (long childID : childIDs) {
+                if (failure.get() != null || cancellation.isCancelled()) {
+                    break;
+                }
+                if (frontier.tryAcquire()) {
+                    forkedTasks.add(new NodeTask(null, childID, frontier, visitor, cancellation, failure, true).fork());
+                } else {
+                    new NodeTask(null, childID, frontier, visitor, cancellation, failure, false).visitTree();
+                }
+            }
+            for (int i = forkedTasks.size() - 1; i >= 0; i--) {
+                forkedTasks.get(i).join();
+            }
+        }
+    }
+}
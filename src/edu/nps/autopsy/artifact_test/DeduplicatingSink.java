@@ -0,0 +1,165 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.sleuthkit.datamodel.BlackboardAttribute;
+import org.sleuthkit.datamodel.Content;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * An artifact sink that drops artifacts already in the deduplication index of
+ * the case and passes the rest on.
+ * <p>
+ * The artifacts passed on are pending until the next flush or close.  Pending
+ * artifacts are dropped as duplicates too, but they go into the index only
+ * when the flush succeeds.  If any write fails while they are pending, they
+ * are left out of the index, so a later run writes them again rather than
+ * skipping an artifact that may never have been written.
+ */
+final class DeduplicatingSink implements ArtifactSink {
+
+    private final ArtifactSink sink;
+    private final DeduplicationIndex index;
+    private final AtomicLong duplicateCount = new AtomicLong();
+
+    // additions hold the read lock, taking the pending keys for a flush the
+    // write lock, so that a flush covers every addition whose keys it takes
+    private final ReadWriteLock pendingLock = new ReentrantReadWriteLock();
+    private volatile Pending pending = new Pending();
+
+    // the keys a flush in progress has taken; guarded by this for writers
+    private volatile Pending flushing;
+
+    // the keys of the artifacts passed on since the last flush
+    private static final class Pending {
+
+        private final LongHashSet keys = new LongHashSet(0);
+        private volatile boolean failed;
+    }
+
+    DeduplicatingSink(ArtifactSink sink, DeduplicationIndex index) {
+        this.sink = sink;
+        this.index = index;
+    }
+
+    @Override
+    public void add(Content content, Collection<BlackboardAttribute> attributes) throws TskCoreException {
+        long key = index.key(content.getId(), attributes);
+        pendingLock.readLock().lock();
+        Pending current = pending;
+        try {
+            if (isDuplicate(current, key)) {
+                duplicateCount.incrementAndGet();
+            } else {
+                sink.add(content, attributes);
+            }
+        } catch (TskCoreException ex) {
+            current.failed = true;
+            throw ex;
+        } finally {
+            pendingLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void addAll(List<ArtifactRecord> records) throws TskCoreException {
+        List<ArtifactRecord> newRecords = new ArrayList<ArtifactRecord>(records.size());
+        pendingLock.readLock().lock();
+        Pending current = pending;
+        try {
+            for (ArtifactRecord record : records) {
+                if (isDuplicate(current, index.key(record.getContent().getId(), record.getAttributes()))) {
+                    duplicateCount.incrementAndGet();
+                } else {
+                    newRecords.add(record);
+                }
+            }
+            sink.addAll(newRecords);
+        } catch (TskCoreException ex) {
+            current.failed = true;
+            throw ex;
+        } finally {
+            pendingLock.readLock().unlock();
+        }
+    }
+
+    // in the index, being flushed, or pending; records the key as pending if
+    // it is none of these
+    private boolean isDuplicate(Pending current, long key) {
+        Pending inFlush = flushing;
+        return index.contains(key) || (inFlush != null && inFlush.keys.contains(key)) || !current.keys.add(key);
+    }
+
+    @Override
+    public synchronized void flush() throws TskCoreException {
+        Pending taken = takePending();
+        try {
+            sink.flush();
+            recordWritten(taken);
+        } catch (TskCoreException ex) {
+            taken.failed = true;
+            throw ex;
+        } finally {
+            flushing = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws TskCoreException {
+        Pending taken = takePending();
+        try {
+            sink.close();
+            recordWritten(taken);
+        } catch (TskCoreException ex) {
+            taken.failed = true;
+            throw ex;
+        } finally {
+            flushing = null;
+        }
+    }
+
+    @Override
+    public String getSummary() {
+        return sink.getSummary() + ", skipped " + duplicateCount.get() + " duplicates";
+    }
+
+    // take the pending keys once no addition is in progress
+    private Pending takePending() {
+        pendingLock.writeLock().lock();
+        try {
+            Pending taken = pending;
+            flushing = taken;
+            pending = new Pending();
+            return taken;
+        } finally {
+            pendingLock.writeLock().unlock();
+        }
+    }
+
+    // the flush covered every artifact of the taken keys
+    private void recordWritten(Pending taken) {
+        if (!taken.failed) {
+            index.addAll(taken.keys.toArray());
+        }
+    }
+}
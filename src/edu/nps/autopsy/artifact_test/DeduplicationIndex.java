@@ -0,0 +1,252 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.datamodel.BlackboardAttribute;
+import org.sleuthkit.datamodel.CaseDbQuery;
+import org.sleuthkit.datamodel.SleuthkitCase;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Per-case index of the ARTIFACT_TEST artifacts already in the case database,
+ * so that running ingest again does not add the same artifacts again.
+ * <p>
+ * An artifact is identified by the object ID of its content and the identity
+ * of the value of its first ATTRIBUTE_TEST attribute under the value template
+ * of the job: the value without its times and payload padding, so that the
+ * same artifact written at another time matches.  A value that was moved to
+ * the blob store is read back from the store, so that artifacts are identified
+ * by their original values.  The index holds a 64 bit hash of each identity,
+ * loaded from the case database once per case and value template by the first
+ * job that asks for it and kept up to date as jobs write artifacts.  The index
+ * is dropped when the current case changes.
+ */
+final class DeduplicationIndex {
+
+    private static final Logger logger = Logger.getLogger(DeduplicationIndex.class.getName());
+    private static final ConcurrentMap<IndexKey, Future<DeduplicationIndex>> indexes
+            = new ConcurrentHashMap<IndexKey, Future<DeduplicationIndex>>();
+
+    private static final PropertyChangeListener caseListener = new PropertyChangeListener() {
+        @Override
+        public void propertyChange(PropertyChangeEvent event) {
+            if (Case.Events.CURRENT_CASE.toString().equals(event.getPropertyName())) {
+                indexes.clear();
+            }
+        }
+    };
+
+    // the indexes are kept by case and template
+    private static final class IndexKey {
+
+        private final SleuthkitCase sleuthkitCase;
+        private final String template;
+
+        IndexKey(SleuthkitCase sleuthkitCase, String template) {
+            this.sleuthkitCase = sleuthkitCase;
+            this.template = template;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof IndexKey)) {
+                return false;
+            }
+            IndexKey that = (IndexKey) other;
+            return sleuthkitCase == that.sleuthkitCase && template.equals(that.template);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(sleuthkitCase) * 31 + template.hashCode();
+        }
+    }
+
+    private final ValueTemplate valueTemplate;
+    private final LongHashSet keys;
+
+    private DeduplicationIndex(ValueTemplate valueTemplate, int expectedSize) {
+        this.valueTemplate = valueTemplate;
+        this.keys = new LongHashSet(expectedSize);
+    }
+
+    /**
+     * Starts dropping the indexes when the current case changes.
+     */
+    static void startListening() {
+        Case.addPropertyChangeListener(caseListener);
+    }
+
+    /**
+     * Stops listening for case changes.
+     */
+    static void stopListening() {
+        Case.removePropertyChangeListener(caseListener);
+    }
+
+    /**
+     * Gets the index of a case and value template, loading it from the case
+     * database if this is the first request for them.
+     *
+     * @param sleuthkitCase The case database.
+     * @param types The blackboard types of the module in the case.
+     * @param outputDirectory The module output directory of the case, which
+     * holds the blob store.
+     * @param valueTemplate The value template of the job.
+     * @return The index.
+     * @throws TskCoreException If loading the index fails.
+     */
+    static DeduplicationIndex forCase(final SleuthkitCase sleuthkitCase, final ArtifactTypeRegistry.Types types,
+            final Path outputDirectory, final ValueTemplate valueTemplate) throws TskCoreException {
+        IndexKey indexKey = new IndexKey(sleuthkitCase, valueTemplate.getTemplate());
+        Future<DeduplicationIndex> index = indexes.get(indexKey);
+        if (index == null) {
+            FutureTask<DeduplicationIndex> task = new FutureTask<DeduplicationIndex>(new Callable<DeduplicationIndex>() {
+                @Override
+                public DeduplicationIndex call() throws TskCoreException {
+                    return load(sleuthkitCase, types, outputDirectory, valueTemplate);
+                }
+            });
+            index = indexes.putIfAbsent(indexKey, task);
+            if (index == null) {
+                // this thread won the race and loads the index
+                index = task;
+                task.run();
+            }
+        }
+        try {
+            return index.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TskCoreException("Interrupted while loading the deduplication index");
+        } catch (ExecutionException ex) {
+            indexes.remove(indexKey, index);
+            if (ex.getCause() instanceof TskCoreException) {
+                throw (TskCoreException) ex.getCause();
+            }
+            throw new TskCoreException("Failed to load the deduplication index", ex.getCause());
+        }
+    }
+
+    /**
+     * Gets the key of an artifact: its identity attribute, which is the
+     * first, and the object ID of its content.
+     *
+     * @param objectID The object ID of the content of the artifact.
+     * @param attributes The attributes of the artifact.
+     * @return The key.
+     */
+    long key(long objectID, Collection<BlackboardAttribute> attributes) {
+        return key(objectID, attributes.isEmpty() ? null : attributes.iterator().next().getValueString());
+    }
+
+    /**
+     * Queries whether an artifact is in the case database, without locking.
+     *
+     * @param key The key of the artifact.
+     * @return True if the artifact is in the index.
+     */
+    boolean contains(long key) {
+        return keys.contains(key);
+    }
+
+    /**
+     * Records artifacts that have been written to the case database.
+     *
+     * @param writtenKeys The keys of the artifacts.
+     */
+    void addAll(long[] writtenKeys) {
+        for (long key : writtenKeys) {
+            keys.add(key);
+        }
+    }
+
+    int size() {
+        return keys.size();
+    }
+
+    // stream the identity attribute of every artifact of the module's type
+    // into a new index; the attributes of an artifact are read in the order
+    // they were added, and only the first is kept
+    private static DeduplicationIndex load(SleuthkitCase sleuthkitCase, ArtifactTypeRegistry.Types types,
+            Path outputDirectory, ValueTemplate valueTemplate) throws TskCoreException {
+        long startNanos = System.nanoTime();
+        BlobStore store;
+        try {
+            store = BlobStore.forExistingDirectory(outputDirectory);
+        } catch (IOException ex) {
+            throw new TskCoreException("Failed to open the blob store in " + outputDirectory, ex);
+        }
+        String countSql = "SELECT COUNT(*) FROM blackboard_artifacts"
+                + " WHERE artifact_type_id = " + types.getArtifactTypeID();
+        String sql = "SELECT blackboard_artifacts.artifact_id, blackboard_artifacts.obj_id, blackboard_attributes.value_text"
+                + " FROM blackboard_artifacts JOIN blackboard_attributes"
+                + " ON blackboard_artifacts.artifact_id = blackboard_attributes.artifact_id"
+                + " WHERE blackboard_artifacts.artifact_type_id = " + types.getArtifactTypeID()
+                + " AND blackboard_attributes.attribute_type_id = " + types.getAttributeTypeID()
+                + " ORDER BY blackboard_attributes.artifact_id, blackboard_attributes.rowid";
+        try (CaseDbQuery countQuery = sleuthkitCase.executeQuery(countSql);
+                CaseDbQuery query = sleuthkitCase.executeQuery(sql)) {
+            ResultSet count = countQuery.getResultSet();
+            DeduplicationIndex index = new DeduplicationIndex(valueTemplate, count.next() ? (int) Math.min(Integer.MAX_VALUE / 4, count.getLong(1)) : 0);
+            ResultSet rows = query.getResultSet();
+            long lastArtifactID = -1;
+            while (rows.next()) {
+                long artifactID = rows.getLong(1);
+                if (artifactID != lastArtifactID) {
+                    String value = rows.getString(3);
+                    index.keys.add(index.key(rows.getLong(2), store != null && value != null ? store.resolve(value) : value));
+                    lastArtifactID = artifactID;
+                }
+            }
+            logger.log(Level.INFO, String.format("Loaded %d existing artifacts into the deduplication index in %.1f ms",
+                    index.size(), (System.nanoTime() - startNanos) / 1.0e6));
+            return index;
+        } catch (SQLException | IOException ex) {
+            throw new TskCoreException("Failed to load the deduplication index", ex);
+        }
+    }
+
+    // 64 bit hash of an artifact identity
+    private long key(long objectID, String value) {
+        String identity = value == null ? "" : valueTemplate.toIdentity(value);
+
+        // FNV-1a over the identity, mixed with the object ID
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < identity.length(); i++) {
+            hash ^= identity.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return LongHashSet.mix(hash ^ LongHashSet.mix(objectID));
+    }
+}
@@ -0,0 +1,103 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import javax.swing.JOptionPane;
+import javax.swing.SwingWorker;
+import org.openide.awt.ActionID;
+import org.openide.awt.ActionReference;
+import org.openide.awt.ActionRegistration;
+import org.openide.util.NbBundle;
+import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.coreutils.MessageNotifyUtil;
+import org.sleuthkit.datamodel.SleuthkitCase;
+
+/**
+ * Tools menu action that exports the ARTIFACT_TEST artifacts of the current
+ * case to a file in the module output directory of the case.  The export runs
+ * on a background thread.
+ */
+@ActionID(category = "Tools", id = "edu.nps.autopsy.artifact_test.ExportArtifactsAction")
+@ActionRegistration(displayName = "#CTL_ExportArtifactsAction")
+@ActionReference(path = "Menu/Tools", position = 1900)
+public final class ExportArtifactsAction implements ActionListener {
+
+    private static final Logger logger = Logger.getLogger(ExportArtifactsAction.class.getName());
+
+    @Override
+    public void actionPerformed(ActionEvent event) {
+        if (!Case.isCaseOpen()) {
+            MessageNotifyUtil.Message.info(NbBundle.getMessage(ExportArtifactsAction.class, "ExportArtifactsAction.noCase"));
+            return;
+        }
+        Object choice = JOptionPane.showInputDialog(null,
+                NbBundle.getMessage(ExportArtifactsAction.class, "ExportArtifactsAction.format.message"),
+                NbBundle.getMessage(ExportArtifactsAction.class, "CTL_ExportArtifactsAction"),
+                JOptionPane.QUESTION_MESSAGE, null, ArtifactExporter.Format.values(), ArtifactExporter.Format.JSONL);
+        if (choice == null) {
+            return;
+        }
+        final ArtifactExporter.Format format = (ArtifactExporter.Format) choice;
+        final Case currentCase = Case.getCurrentCase();
+        final Path file = Paths.get(currentCase.getModulesOutputDirAbsPath(),
+                ArtifactTestIngestModuleFactory.getModuleOutputDirectoryName(),
+                "artifact_test-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + "." + format.getExtension());
+
+        new SwingWorker<Long, Void>() {
+            @Override
+            protected Long doInBackground() throws Exception {
+                Files.createDirectories(file.getParent());
+                SleuthkitCase sleuthkitCase = currentCase.getSleuthkitCase();
+                ArtifactExporter exporter = new ArtifactExporter(sleuthkitCase, ArtifactTypeRegistry.getTypes(sleuthkitCase),
+                        format, ArtifactExporter.DEFAULT_PAGE_SIZE, BlobStore.forExistingDirectory(file.getParent()));
+                return exporter.export(file, new ArtifactExporter.Cancellation() {
+                    @Override
+                    public boolean isCancelled() {
+                        return isExportCancelled();
+                    }
+                });
+            }
+
+            private boolean isExportCancelled() {
+                return isCancelled();
+            }
+
+            @Override
+            protected void done() {
+                String title = NbBundle.getMessage(ExportArtifactsAction.class, "CTL_ExportArtifactsAction");
+                try {
+                    MessageNotifyUtil.Notify.info(title,
+                            NbBundle.getMessage(ExportArtifactsAction.class, "ExportArtifactsAction.done", get(), file.toString()));
+                } catch (InterruptedException | ExecutionException ex) {
+                    logger.log(Level.SEVERE, "Failed to export artifacts to " + file, ex);
+                    MessageNotifyUtil.Notify.error(title,
+                            NbBundle.getMessage(ExportArtifactsAction.class, "ExportArtifactsAction.failed", file.toString()));
+                }
+            }
+        }.execute();
+    }
+}
@@ -0,0 +1,74 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.nio.file.Path;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.ingest.IngestMessage;
+import org.sleuthkit.datamodel.SleuthkitCase;
+
+/**
+ * What the Artifact Test ingest modules need of the ingest job and the case
+ * they run in.  In Autopsy it is backed by the ingest job context and the
+ * current case, see {@link AutopsyIngestJobEnvironment}; outside Autopsy a
+ * harness can back it with a case database of its own.
+ */
+interface IngestJobEnvironment {
+
+    /**
+     * Gets the ID of the ingest job.
+     *
+     * @return The job ID.
+     */
+    long getJobId();
+
+    /**
+     * Queries whether the ingest job was cancelled.
+     *
+     * @return True if the job was cancelled.
+     */
+    boolean isJobCancelled();
+
+    /**
+     * Gets the case database the job writes to.
+     *
+     * @return The case database.
+     */
+    SleuthkitCase getSleuthkitCase();
+
+    /**
+     * Gets the directory of the module in the module output directory of the
+     * case.
+     *
+     * @return The directory, which may not exist yet.
+     */
+    Path getModuleOutputDirectory();
+
+    /**
+     * Gets the logger of the module.
+     *
+     * @return The logger.
+     */
+    Logger getLogger();
+
+    /**
+     * Posts a message to the ingest inbox.
+     *
+     * @param message The message.
+     */
+    void postMessage(IngestMessage message);
+}
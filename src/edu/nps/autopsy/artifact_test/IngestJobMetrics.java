@@ -0,0 +1,216 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.ingest.IngestMessage;
+
+/**
+ * Latencies and counters of the blackboard writes of one ingest job.
+ * <p>
+ * The module instances of a job share one IngestJobMetrics, opened in startUp
+ * and closed when they finish.  While it is open it is registered with the
+ * platform MBean server as
+ * edu.nps.autopsy.artifact_test:type=IngestJobMetrics,jobId=N.  The last
+ * instance to close it unregisters it and posts a summary to the ingest inbox.
+ */
+final class IngestJobMetrics implements IngestJobMetricsMXBean {
+
+    private static final Logger logger = Logger.getLogger(IngestJobMetrics.class.getName());
+    private static final String moduleName = ArtifactTestIngestModuleFactory.getModuleName();
+
+    // guarded by itself
+    private static final Map<Long, IngestJobMetrics> openMetrics = new HashMap<Long, IngestJobMetrics>();
+
+    private final long jobId;
+    private int openCount;
+
+    // where the summary is posted, or null if it is only logged
+    private IngestJobEnvironment environment;
+    private ObjectName objectName;
+
+    final LatencyHistogram typeRegistration = new LatencyHistogram();
+    final LatencyHistogram artifactCreation = new LatencyHistogram();
+    final LatencyHistogram attributeInsertion = new LatencyHistogram();
+    // the whole of a batch written under the case database write lock; each
+    // artifact and its attributes are still committed by TSK on their own
+    final LatencyHistogram batchWrite = new LatencyHistogram();
+    private final LongAdder artifactsWritten = new LongAdder();
+    private final LongAdder attributesWritten = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * Creates metrics that are not registered anywhere, for use outside of an
+     * ingest job.
+     *
+     * @param jobId An ID to report the metrics under.
+     */
+    IngestJobMetrics(long jobId) {
+        this.jobId = jobId;
+    }
+
+    /**
+     * Gets the metrics of an ingest job, registering them with JMX if this is
+     * the first module instance of the job to open them.
+     *
+     * @param environment The ingest job.
+     * @return The metrics.
+     */
+    static IngestJobMetrics open(IngestJobEnvironment environment) {
+        long jobId = environment.getJobId();
+        synchronized (openMetrics) {
+            IngestJobMetrics metrics = openMetrics.get(jobId);
+            if (metrics == null) {
+                metrics = new IngestJobMetrics(jobId);
+                metrics.environment = environment;
+                metrics.register();
+                openMetrics.put(jobId, metrics);
+            }
+            metrics.openCount++;
+            return metrics;
+        }
+    }
+
+    /**
+     * Closes the metrics for one module instance.  When the last instance of
+     * the job closes them, they are unregistered and summarized in the ingest
+     * inbox.
+     */
+    void close() {
+        synchronized (openMetrics) {
+            if (--openCount > 0) {
+                return;
+            }
+            openMetrics.remove(jobId);
+            unregister();
+        }
+        String subject = String.format("%s: blackboard write metrics for ingest job %d", moduleName, jobId);
+        logger.log(Level.INFO, "{0}: {1}", new Object[]{subject, this});
+        if (environment != null) {
+            environment.postMessage(IngestMessage.createMessage(
+                    IngestMessage.MessageType.INFO, moduleName, subject, toHtml()));
+        }
+    }
+
+    void artifactWritten(int attributeCount) {
+        artifactsWritten.increment();
+        attributesWritten.add(attributeCount);
+    }
+
+    void error() {
+        errors.increment();
+    }
+
+    @Override
+    public long getJobId() {
+        return jobId;
+    }
+
+    @Override
+    public long getArtifactsWritten() {
+        return artifactsWritten.sum();
+    }
+
+    @Override
+    public long getAttributesWritten() {
+        return attributesWritten.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public LatencySummary getTypeRegistration() {
+        return typeRegistration.summarize();
+    }
+
+    @Override
+    public LatencySummary getArtifactCreation() {
+        return artifactCreation.summarize();
+    }
+
+    @Override
+    public LatencySummary getAttributeInsertion() {
+        return attributeInsertion.summarize();
+    }
+
+    @Override
+    public LatencySummary getBatchWrite() {
+        return batchWrite.summarize();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("artifacts=%d attributes=%d errors=%d typeRegistration[%s] artifactCreation[%s] attributeInsertion[%s] batchWrite[%s]",
+                getArtifactsWritten(), getAttributesWritten(), getErrors(),
+                getTypeRegistration(), getArtifactCreation(), getAttributeInsertion(), getBatchWrite());
+    }
+
+    private String toHtml() {
+        StringBuilder html = new StringBuilder();
+        html.append("<p>Artifacts: ").append(getArtifactsWritten())
+                .append(", attributes: ").append(getAttributesWritten())
+                .append(", errors: ").append(getErrors()).append("</p>");
+        html.append("<table border='0' cellpadding='4'>");
+        html.append("<tr><th>Operation</th><th>Count</th><th>Mean (us)</th><th>p50 (us)</th><th>p99 (us)</th><th>Max (us)</th></tr>");
+        appendRow(html, "Type registration", getTypeRegistration());
+        appendRow(html, "Artifact creation", getArtifactCreation());
+        appendRow(html, "Attribute insertion", getAttributeInsertion());
+        appendRow(html, "Batch write", getBatchWrite());
+        html.append("</table>");
+        return html.toString();
+    }
+
+    private static void appendRow(StringBuilder html, String operation, LatencySummary summary) {
+        html.append(String.format("<tr><td>%s</td><td>%d</td><td>%.1f</td><td>%.1f</td><td>%.1f</td><td>%.1f</td></tr>",
+                operation, summary.getCount(), summary.getMeanMicros(), summary.getP50Micros(),
+                summary.getP99Micros(), summary.getMaxMicros()));
+    }
+
+    private void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("edu.nps.autopsy.artifact_test:type=IngestJobMetrics,jobId=" + jobId);
+            server.registerMBean(this, objectName);
+        } catch (JMException ex) {
+            // the metrics still work, they are just not visible over JMX
+            logger.log(Level.WARNING, "Failed to register metrics of ingest job " + jobId + " with JMX", ex);
+            objectName = null;
+        }
+    }
+
+    private void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException ex) {
+            logger.log(Level.WARNING, "Failed to unregister metrics of ingest job " + jobId + " from JMX", ex);
+        }
+    }
+}
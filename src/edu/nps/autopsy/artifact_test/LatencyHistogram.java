@@ -0,0 +1,100 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of operation latencies with power-of-two nanosecond buckets.
+ * <p>
+ * Recording costs a few atomic increments and never locks or allocates, so it
+ * can stay on in production.  Percentiles are accurate to within a factor of
+ * two, which is enough to tell a fast write from a database stall.
+ */
+final class LatencyHistogram {
+
+    private static final int BUCKET_COUNT = 64;
+
+    // bucket i counts latencies in [2^i, 2^(i+1)) nanoseconds; bucket 0 also counts 0
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos The latency in nanoseconds.
+     */
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos | 1));
+        count.increment();
+        totalNanos.add(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Records the latency of an operation that started at a System.nanoTime()
+     * reading.
+     *
+     * @param startNanos The System.nanoTime() reading at the start.
+     */
+    void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Gets a summary of the latencies recorded so far.
+     *
+     * @return The summary.
+     */
+    LatencySummary summarize() {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        double meanMicros = total == 0 ? 0 : totalNanos.sum() / 1000.0 / count.sum();
+        return new LatencySummary(total, meanMicros, percentileMicros(counts, total, 0.50),
+                percentileMicros(counts, total, 0.99), maxNanos.get() / 1000.0);
+    }
+
+    // the upper bound of the bucket holding the percentile
+    private static double percentileMicros(long[] counts, long total, double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.scalb(1.0, i + 1) / 1000.0;
+            }
+        }
+        return Math.scalb(1.0, BUCKET_COUNT) / 1000.0;
+    }
+}
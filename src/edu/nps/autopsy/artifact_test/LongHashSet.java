@@ -0,0 +1,193 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A set of primitive longs with lock-free lookups, fronted by a Bloom filter.
+ * <p>
+ * The set is an open-addressing table with linear probing.  Lookups read the
+ * current table without locking; a miss in the Bloom filter answers most
+ * lookups of absent keys without probing at all.  Additions lock, which is
+ * fine because every addition is followed by a case database write that
+ * costs far more.  The table and filter are replaced together, under the
+ * lock, when the table gets too full.
+ */
+final class LongHashSet {
+
+    // the value of an empty slot; key 0 is stored as ZERO_KEY
+    private static final long EMPTY = 0L;
+    private static final long ZERO_KEY = 0x9E3779B97F4A7C15L;
+    private static final int BLOOM_BITS_PER_KEY = 10;
+    private static final int BLOOM_HASHES = 3;
+
+    private static final class Tables {
+
+        private final AtomicLongArray slots;
+        private final AtomicLongArray bloom;
+        private final int slotMask;
+        private final long bloomBits;
+
+        Tables(int capacity) {
+            int slotCount = Integer.highestOneBit(Math.max(16, capacity * 2 - 1)) * 2;
+            this.slots = new AtomicLongArray(slotCount);
+            this.slotMask = slotCount - 1;
+            this.bloom = new AtomicLongArray(Math.max(1, (int) ((long) capacity * BLOOM_BITS_PER_KEY / 64)));
+            this.bloomBits = (long) bloom.length() * 64;
+        }
+    }
+
+    private volatile Tables tables;
+    private int size;
+
+    /**
+     * Creates a set.
+     *
+     * @param expectedSize The number of keys expected, to size the tables.
+     */
+    LongHashSet(int expectedSize) {
+        this.tables = new Tables(Math.max(expectedSize, 1024));
+    }
+
+    /**
+     * Queries whether a key is in the set, without locking.
+     *
+     * @param key The key.
+     * @return True if the key is in the set.
+     */
+    boolean contains(long key) {
+        key = key == EMPTY ? ZERO_KEY : key;
+        Tables current = tables;
+        if (!mightContain(current, key)) {
+            return false;
+        }
+        for (int slot = spread(key) & current.slotMask;; slot = (slot + 1) & current.slotMask) {
+            long found = current.slots.get(slot);
+            if (found == key) {
+                return true;
+            }
+            if (found == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Adds a key unless it is already in the set.
+     *
+     * @param key The key.
+     * @return True if the key was added, false if it was already there.
+     */
+    synchronized boolean add(long key) {
+        key = key == EMPTY ? ZERO_KEY : key;
+        if (contains(key)) {
+            return false;
+        }
+        if ((size + 1) * 2 > tables.slots.length()) {
+            grow();
+        }
+        insert(tables, key);
+        size++;
+        return true;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets the keys in the set.
+     *
+     * @return The keys, in no particular order.
+     */
+    synchronized long[] toArray() {
+        long[] keys = new long[size];
+        int count = 0;
+        Tables current = tables;
+        for (int i = 0; i < current.slots.length(); i++) {
+            long key = current.slots.get(i);
+            if (key != EMPTY) {
+                keys[count++] = key == ZERO_KEY ? EMPTY : key;
+            }
+        }
+        return keys;
+    }
+
+    // double the table and rebuild the filter for the new capacity
+    private void grow() {
+        Tables old = tables;
+        Tables bigger = new Tables(old.slots.length());
+        for (int i = 0; i < old.slots.length(); i++) {
+            long key = old.slots.get(i);
+            if (key != EMPTY) {
+                insert(bigger, key);
+            }
+        }
+        tables = bigger;
+    }
+
+    // the Bloom filter bits are set before the slot so that a reader that
+    // finds the slot never misses in the filter
+    private static void insert(Tables target, long key) {
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = bloomBit(target, key, i);
+            final long mask = 1L << (bit & 63);
+            int word = (int) (bit >>> 6);
+            long value = target.bloom.get(word);
+            while ((value & mask) == 0 && !target.bloom.compareAndSet(word, value, value | mask)) {
+                value = target.bloom.get(word);
+            }
+        }
+        int slot = spread(key) & target.slotMask;
+        while (target.slots.get(slot) != EMPTY) {
+            slot = (slot + 1) & target.slotMask;
+        }
+        target.slots.set(slot, key);
+    }
+
+    private static boolean mightContain(Tables current, long key) {
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = bloomBit(current, key, i);
+            if ((current.bloom.get((int) (bit >>> 6)) & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // double hashing: h1 + i * h2
+    private static long bloomBit(Tables target, long key, int i) {
+        long h1 = mix(key);
+        long h2 = mix(h1) | 1;
+        return ((h1 + i * h2) & Long.MAX_VALUE) % target.bloomBits;
+    }
+
+    private static int spread(long key) {
+        return (int) (mix(key) >>> 32);
+    }
+
+    // the 64 bit finalizer of MurmurHash3
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,352 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.sleuthkit.datamodel.Content;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Hashes a content into a SHA-256 Merkle tree, in parallel over its leaves.
+ * <p>
+ * The content is split into fixed-size leaves.  The tree has the shape of
+ * RFC 6962: a leaf is hashed as SHA-256(0x00 || bytes) and a node as
+ * SHA-256(0x01 || left || right), where the left subtree holds the largest
+ * power of two of leaves that is less than the leaf count.  Every aligned run
+ * of a power of two of leaves is then a subtree, so the content is also split
+ * into segments of such runs whose digests can be checked on their own: a
+ * verification reads one segment, not the whole content.
+ * <p>
+ * Subtrees are hashed as fork-join tasks down to single leaves.  Each worker
+ * thread has its own leaf buffer and digests, so nothing is allocated per
+ * leaf.
+ */
+final class MerkleHasher {
+
+    /**
+     * The size of a leaf in bytes.
+     */
+    static final int LEAF_SIZE = 1024 * 1024;
+
+    private static final byte LEAF_PREFIX = 0;
+    private static final byte NODE_PREFIX = 1;
+
+    private final int threadCount;
+
+    // per worker thread
+    private final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[LEAF_SIZE];
+        }
+    };
+    private final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            return newDigest();
+        }
+    };
+
+    /**
+     * The digests of a content.
+     */
+    static final class Result {
+
+        private final long size;
+        private final long segmentSize;
+        private final byte[] root;
+        private final byte[][] segments;
+
+        private Result(long size, long segmentSize, byte[] root, byte[][] segments) {
+            this.size = size;
+            this.segmentSize = segmentSize;
+            this.root = root;
+            this.segments = segments;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        long getSegmentSize() {
+            return segmentSize;
+        }
+
+        byte[] getRoot() {
+            return root.clone();
+        }
+
+        int getSegmentCount() {
+            return segments.length;
+        }
+
+        byte[] getSegment(int index) {
+            return segments[index].clone();
+        }
+    }
+
+    /**
+     * Tells the hash to stop early.
+     */
+    interface Cancellation {
+
+        boolean isCancelled();
+    }
+
+    /**
+     * Creates a hasher.
+     *
+     * @param threadCount The number of hashing threads, or 0 for one per
+     * processor.
+     */
+    MerkleHasher(int threadCount) {
+        this.threadCount = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Rounds a segment size to the power of two of leaves at or above it.
+     *
+     * @param segmentSize The requested segment size in bytes.
+     * @return The segment size in bytes.
+     */
+    static long toSegmentSize(long segmentSize) {
+        long leaves = Math.max(1, (segmentSize + LEAF_SIZE - 1) / LEAF_SIZE);
+        return (long) LEAF_SIZE * Long.highestOneBit(leaves) << (Long.bitCount(leaves) > 1 ? 1 : 0);
+    }
+
+    /**
+     * Hashes a content and waits for the hash to finish.
+     *
+     * @param content The content.
+     * @param segmentSize The segment size in bytes, rounded with
+     * {@link #toSegmentSize}.
+     * @param cancellation Checked before each leaf.
+     * @param hashedBytes Incremented as bytes are hashed, for progress.
+     * @param progress Run on the calling thread a few times a second while
+     * the hash runs, to report progress.
+     * @return The digests, or null if the hash was cancelled.
+     * @throws TskCoreException If reading the content fails.
+     */
+    Result hash(Content content, long segmentSize, Cancellation cancellation, AtomicLong hashedBytes,
+            Runnable progress) throws TskCoreException {
+        long size = content.getSize();
+        segmentSize = toSegmentSize(segmentSize);
+        long leafCount = (size + LEAF_SIZE - 1) / LEAF_SIZE;
+        long segmentLeaves = segmentSize / LEAF_SIZE;
+        byte[][] segments = new byte[(int) ((leafCount + segmentLeaves - 1) / segmentLeaves)][];
+        if (leafCount == 0) {
+            // the hash of an empty tree
+            return new Result(size, segmentSize, newDigest().digest(), segments);
+        }
+
+        AtomicReference<TskCoreException> failure = new AtomicReference<TskCoreException>();
+        byte[] root;
+        ForkJoinPool pool = new ForkJoinPool(threadCount);
+        try {
+            ForkJoinTask<byte[]> task = pool.submit(new SubtreeTask(content, size, 0, leafCount, segmentLeaves,
+                    segments, cancellation, hashedBytes, failure));
+            while (!isDone(task)) {
+                progress.run();
+            }
+            root = task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TskCoreException("Interrupted while hashing " + content.getName());
+        } catch (ExecutionException ex) {
+            throw new TskCoreException("Failed to hash " + content.getName(), ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return root == null ? null : new Result(size, segmentSize, root, segments);
+    }
+
+    /**
+     * Hashes one segment of a content on the calling thread, to check it
+     * against a digest recorded earlier.
+     *
+     * @param content The content.
+     * @param segmentSize The segment size the digest was recorded with.
+     * @param segmentIndex The index of the segment.
+     * @return The digest of the segment.
+     * @throws TskCoreException If reading the content fails.
+     */
+    byte[] hashSegment(Content content, long segmentSize, int segmentIndex) throws TskCoreException {
+        long size = content.getSize();
+        long segmentLeaves = toSegmentSize(segmentSize) / LEAF_SIZE;
+        long leafCount = (size + LEAF_SIZE - 1) / LEAF_SIZE;
+        long firstLeaf = segmentIndex * segmentLeaves;
+        if (segmentIndex < 0 || firstLeaf >= leafCount) {
+            throw new TskCoreException("No segment " + segmentIndex + " in " + content.getName());
+        }
+        return new SubtreeTask(content, size, firstLeaf, Math.min(segmentLeaves, leafCount - firstLeaf), segmentLeaves,
+                new byte[(int) ((leafCount + segmentLeaves - 1) / segmentLeaves)][], new Cancellation() {
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        }, new AtomicLong(), new AtomicReference<TskCoreException>()).hashSubtree(false);
+    }
+
+    /**
+     * Formats a digest as lower case hex.
+     *
+     * @param digest The digest.
+     * @return The hex string.
+     */
+    static String toHex(byte[] digest) {
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[2 * i] = Character.forDigit((digest[i] >> 4) & 0xf, 16);
+            hex[2 * i + 1] = Character.forDigit(digest[i] & 0xf, 16);
+        }
+        return new String(hex);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    // wait a moment for a hash to finish
+    private static boolean isDone(ForkJoinTask<?> task) throws InterruptedException {
+        try {
+            task.get(250, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException ex) {
+            return false;
+        } catch (ExecutionException ex) {
+            return true;
+        }
+    }
+
+    // hashes the subtree over a run of leaves, recording it if it is a segment
+    private final class SubtreeTask extends RecursiveTask<byte[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Content content;
+        private final long size;
+        private final long firstLeaf;
+        private final long leafCount;
+        private final long segmentLeaves;
+        private final byte[][] segments;
+        private final Cancellation cancellation;
+        private final AtomicLong hashedBytes;
+        private final AtomicReference<TskCoreException> failure;
+
+        SubtreeTask(Content content, long size, long firstLeaf, long leafCount, long segmentLeaves,
+                byte[][] segments, Cancellation cancellation, AtomicLong hashedBytes,
+                AtomicReference<TskCoreException> failure) {
+            this.content = content;
+            this.size = size;
+            this.firstLeaf = firstLeaf;
+            this.leafCount = leafCount;
+            this.segmentLeaves = segmentLeaves;
+            this.segments = segments;
+            this.cancellation = cancellation;
+            this.hashedBytes = hashedBytes;
+            this.failure = failure;
+        }
+
+        @Override
+        protected byte[] compute() {
+            try {
+                return hashSubtree(true);
+            } catch (TskCoreException ex) {
+                failure.compareAndSet(null, ex);
+                return null;
+            }
+        }
+
+        // returns null if the hash failed or was cancelled
+        byte[] hashSubtree(boolean fork) throws TskCoreException {
+            byte[] digest;
+            if (leafCount == 1) {
+                digest = hashLeaf();
+            } else {
+                long split = Long.highestOneBit(leafCount - 1);
+                SubtreeTask left = new SubtreeTask(content, size, firstLeaf, split, segmentLeaves, segments,
+                        cancellation, hashedBytes, failure);
+                SubtreeTask right = new SubtreeTask(content, size, firstLeaf + split, leafCount - split,
+                        segmentLeaves, segments, cancellation, hashedBytes, failure);
+                byte[] leftDigest;
+                byte[] rightDigest;
+                if (fork) {
+                    right.fork();
+                    leftDigest = left.compute();
+                    rightDigest = right.join();
+                } else {
+                    leftDigest = left.hashSubtree(false);
+                    rightDigest = right.hashSubtree(false);
+                }
+                if (leftDigest == null || rightDigest == null) {
+                    return null;
+                }
+                MessageDigest node = digests.get();
+                node.update(NODE_PREFIX);
+                node.update(leftDigest);
+                node.update(rightDigest);
+                digest = node.digest();
+            }
+
+            // a whole segment, or what there is of the last one
+            if (digest != null && firstLeaf % segmentLeaves == 0 && leafCount <= segmentLeaves
+                    && (leafCount == segmentLeaves || (firstLeaf + leafCount) * LEAF_SIZE >= size)) {
+                segments[(int) (firstLeaf / segmentLeaves)] = digest;
+            }
+            return digest;
+        }
+
+        private byte[] hashLeaf() throws TskCoreException {
+            if (failure.get() != null || cancellation.isCancelled()) {
+                return null;
+            }
+            MessageDigest leaf = digests.get();
+            leaf.update(LEAF_PREFIX);
+            byte[] buffer = buffers.get();
+            long offset = firstLeaf * LEAF_SIZE;
+            long end = Math.min(size, offset + LEAF_SIZE);
+            while (offset < end) {
+                int read = content.read(buffer, offset, end - offset);
+                if (read <= 0) {
+                    // the content is shorter than it claims
+                    break;
+                }
+                leaf.update(buffer, 0, read);
+                hashedBytes.addAndGet(read);
+                offset += read;
+            }
+            return leaf.digest();
+        }
+    }
+}
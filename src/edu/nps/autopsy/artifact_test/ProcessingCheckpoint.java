@@ -0,0 +1,329 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * The progress of the module on one data source, kept in a properties file in
+ * the module output directory of the case so that a run that was cancelled or
+ * crashed can be resumed where it stopped.
+ * <p>
+ * Progress is kept as sets of completed [start, end) ranges, one set per kind
+ * of work.  A range is first marked completed once the artifacts for it have
+ * been added to the artifact sink, and is committed to the file only after
+ * the sink has been flushed, so a committed range never has artifacts that are
+ * not in the case database.  This relies on the sink throwing from flush for
+ * any artifact it has lost, and on the module not committing after an error.
+ * <p>
+ * The file is keyed by the data source object ID and the module version, and
+ * records the settings that decide what the work is; a checkpoint written
+ * with other settings is ignored.
+ */
+final class ProcessingCheckpoint {
+
+    private static final Logger logger = Logger.getLogger(ProcessingCheckpoint.class.getName());
+
+    /**
+     * Byte ranges of the data source scanned for signatures.
+     */
+    static final String SCANNED = "scanned";
+
+    /**
+     * Index ranges of the load generating artifacts written.
+     */
+    static final String GENERATED = "generated";
+
+    /**
+     * Byte ranges of the data source whose Merkle tree digests are written.
+     */
+    static final String HASHED = "hashed";
+
+    // how often the module commits its progress
+    private static final long COMMIT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private static final String DATA_SOURCE_KEY = "dataSource";
+    private static final String VERSION_KEY = "version";
+    private static final String SETTINGS_KEY = "settings";
+
+    private final Path file;
+    private final long dataSourceObjectID;
+    private final String version;
+    private final String settings;
+
+    // ranges whose artifacts are in the case database, and ranges whose
+    // artifacts may still be in the sink
+    private final Map<String, RangeSet> committed = new HashMap<String, RangeSet>();
+    private final Map<String, RangeSet> completed = new HashMap<String, RangeSet>();
+    private long lastCommitNanos = System.nanoTime();
+
+    private ProcessingCheckpoint(Path file, long dataSourceObjectID, String version, String settings) {
+        this.file = file;
+        this.dataSourceObjectID = dataSourceObjectID;
+        this.version = version;
+        this.settings = settings;
+    }
+
+    /**
+     * Loads the checkpoint of a data source, or starts an empty one if there
+     * is none, it cannot be read, or it was written with other settings.
+     *
+     * @param directory The directory of the module in the module output
+     * directory of the case.
+     * @param dataSourceObjectID The object ID of the data source.
+     * @param version The module version.
+     * @param settings The settings that decide what the work is, as text.
+     * @return The checkpoint.
+     */
+    static ProcessingCheckpoint load(Path directory, long dataSourceObjectID, String version, String settings) {
+        Path file = directory.resolve("checkpoint-" + dataSourceObjectID + "-" + version + ".properties");
+        ProcessingCheckpoint checkpoint = new ProcessingCheckpoint(file, dataSourceObjectID, version, settings);
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+            if (settings.equals(properties.getProperty(SETTINGS_KEY))) {
+                for (String kind : new String[]{SCANNED, GENERATED, HASHED}) {
+                    String ranges = properties.getProperty(kind);
+                    if (ranges != null) {
+                        checkpoint.committed.put(kind, RangeSet.parse(ranges));
+                    }
+                }
+            } else {
+                logger.log(Level.INFO, "Ignoring checkpoint " + file + " written with other settings");
+            }
+        } catch (NoSuchFileException ex) {
+            // a fresh start
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Failed to read checkpoint " + file + ", starting from the beginning", ex);
+            checkpoint.committed.clear();
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Tells whether an earlier run left any committed progress.
+     *
+     * @return True if some work is already done.
+     */
+    synchronized boolean isResumed() {
+        return !committed.isEmpty();
+    }
+
+    /**
+     * Gets the parts of a range that no run has committed yet.
+     *
+     * @param kind The kind of work.
+     * @param start The start of the range.
+     * @param end The end of the range.
+     * @return The [start, end) pairs that are left, in order.
+     */
+    synchronized List<long[]> getRemaining(String kind, long start, long end) {
+        return get(committed, kind).gaps(start, end);
+    }
+
+    /**
+     * Gets the total length of the committed ranges of a kind of work.
+     *
+     * @param kind The kind of work.
+     * @return The committed length.
+     */
+    synchronized long getCommittedLength(String kind) {
+        return get(committed, kind).length();
+    }
+
+    /**
+     * Marks a range completed once its artifacts have been added to the
+     * sink.  It is committed with the next commit.
+     *
+     * @param kind The kind of work.
+     * @param start The start of the range.
+     * @param end The end of the range.
+     */
+    synchronized void completed(String kind, long start, long end) {
+        get(completed, kind).add(start, end);
+    }
+
+    /**
+     * Tells whether it is time for the next commit.
+     *
+     * @return True if the last commit was a while ago.
+     */
+    synchronized boolean isCommitDue() {
+        return System.nanoTime() - lastCommitNanos >= COMMIT_INTERVAL_NANOS;
+    }
+
+    /**
+     * Flushes the sink, then commits the ranges that were completed before
+     * the flush and writes the checkpoint file.  The file is replaced
+     * atomically, so a crash leaves either the old or the new checkpoint.
+     *
+     * @param sink The sink the artifacts of the completed ranges went to.
+     * @throws TskCoreException If flushing the sink fails; nothing is
+     * committed.
+     * @throws IOException If writing the checkpoint file fails.
+     */
+    void commit(ArtifactSink sink) throws TskCoreException, IOException {
+        Map<String, RangeSet> flushed = new HashMap<String, RangeSet>();
+        synchronized (this) {
+            lastCommitNanos = System.nanoTime();
+            flushed.putAll(completed);
+            completed.clear();
+        }
+        // if the flush fails, the ranges are not committed and are done
+        // again on the next run
+        sink.flush();
+
+        Properties properties = new Properties();
+        synchronized (this) {
+            for (Map.Entry<String, RangeSet> entry : flushed.entrySet()) {
+                get(committed, entry.getKey()).addAll(entry.getValue());
+            }
+            properties.setProperty(DATA_SOURCE_KEY, Long.toString(dataSourceObjectID));
+            properties.setProperty(VERSION_KEY, version);
+            properties.setProperty(SETTINGS_KEY, settings);
+            for (Map.Entry<String, RangeSet> entry : committed.entrySet()) {
+                properties.setProperty(entry.getKey(), entry.getValue().toString());
+            }
+        }
+        Files.createDirectories(file.getParent());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            properties.store(out, "Artifact Test progress");
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes the checkpoint file once the data source is done, so the next
+     * run starts from the beginning.
+     *
+     * @throws IOException If deleting the file fails.
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static RangeSet get(Map<String, RangeSet> sets, String kind) {
+        RangeSet set = sets.get(kind);
+        if (set == null) {
+            set = new RangeSet();
+            sets.put(kind, set);
+        }
+        return set;
+    }
+
+    // disjoint, non-adjacent [start, end) ranges keyed by start
+    private static final class RangeSet {
+
+        private final TreeMap<Long, Long> ranges = new TreeMap<Long, Long>();
+
+        void add(long start, long end) {
+            if (start >= end) {
+                return;
+            }
+            // merge with the ranges it overlaps or touches
+            Map.Entry<Long, Long> before = ranges.floorEntry(start);
+            if (before != null && before.getValue() >= start) {
+                start = before.getKey();
+                end = Math.max(end, before.getValue());
+            }
+            Map.Entry<Long, Long> next;
+            while ((next = ranges.ceilingEntry(start)) != null && next.getKey() <= end) {
+                end = Math.max(end, next.getValue());
+                ranges.remove(next.getKey());
+            }
+            ranges.put(start, end);
+        }
+
+        void addAll(RangeSet other) {
+            for (Map.Entry<Long, Long> range : other.ranges.entrySet()) {
+                add(range.getKey(), range.getValue());
+            }
+        }
+
+        long length() {
+            long length = 0;
+            for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+                length += range.getValue() - range.getKey();
+            }
+            return length;
+        }
+
+        List<long[]> gaps(long start, long end) {
+            List<long[]> gaps = new ArrayList<long[]>();
+            long offset = start;
+            for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+                if (range.getKey() >= end) {
+                    break;
+                }
+                if (range.getKey() > offset) {
+                    gaps.add(new long[]{offset, range.getKey()});
+                }
+                offset = Math.max(offset, range.getValue());
+            }
+            if (offset < end) {
+                gaps.add(new long[]{offset, end});
+            }
+            return gaps;
+        }
+
+        // "start-end,start-end"
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+                if (text.length() > 0) {
+                    text.append(',');
+                }
+                text.append(range.getKey()).append('-').append(range.getValue());
+            }
+            return text.toString();
+        }
+
+        static RangeSet parse(String text) throws IOException {
+            RangeSet set = new RangeSet();
+            for (String range : text.split(",")) {
+                if (range.isEmpty()) {
+                    continue;
+                }
+                int dash = range.indexOf('-');
+                try {
+                    set.add(Long.parseLong(range.substring(0, dash)), Long.parseLong(range.substring(dash + 1)));
+                } catch (NumberFormatException | StringIndexOutOfBoundsException ex) {
+                    throw new IOException("Bad range in checkpoint: " + range, ex);
+                }
+            }
+            return set;
+        }
+    }
+}
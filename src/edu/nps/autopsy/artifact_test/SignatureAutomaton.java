@@ -0,0 +1,239 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Aho-Corasick automaton that finds every occurrence of a set of byte
+ * signatures in one pass over the data.
+ * <p>
+ * The automaton is compiled into a dense table with one entry per state and
+ * byte value, so scanning costs one array lookup per byte and allocates
+ * nothing.  The state is returned from scan() and passed back into the next
+ * call, so a signature that straddles two buffers is still found.  The
+ * automaton is immutable and may be shared by any number of threads.
+ */
+final class SignatureAutomaton {
+
+    private static final int ALPHABET_SIZE = 256;
+
+    private final byte[][] signatures;
+    private final String[] hexSignatures;
+    private final int maxLength;
+
+    // state * 256 + byte value -> next state
+    private final int[] transitions;
+    // state -> signature that ends in this state, or -1
+    private final int[] match;
+    // state -> nearest state on its failure chain, itself included, that has a match, or -1
+    private final int[] output;
+    // state -> nearest state on its failure chain, itself excluded, that has a match, or -1
+    private final int[] nextOutput;
+
+    /**
+     * Receives the signatures found by scan().
+     */
+    interface Listener {
+
+        /**
+         * Called for each occurrence of a signature.
+         *
+         * @param signatureIndex The index of the signature in the list the
+         * automaton was built from.
+         * @param offset The offset of the first byte of the occurrence.
+         */
+        void signatureFound(int signatureIndex, long offset);
+    }
+
+    /**
+     * Builds an automaton.
+     *
+     * @param signatures The signatures to find; none may be empty.
+     */
+    SignatureAutomaton(List<byte[]> signatures) {
+        if (signatures.isEmpty()) {
+            throw new IllegalArgumentException("No signatures");
+        }
+        this.signatures = signatures.toArray(new byte[signatures.size()][]);
+        this.hexSignatures = new String[this.signatures.length];
+        for (int i = 0; i < this.signatures.length; i++) {
+            StringBuilder hex = new StringBuilder(this.signatures[i].length * 2);
+            for (byte b : this.signatures[i]) {
+                hex.append(String.format(Locale.ROOT, "%02x", b & 0xff));
+            }
+            hexSignatures[i] = hex.toString();
+        }
+
+        // the trie
+        int capacity = 1;
+        int longest = 0;
+        for (byte[] signature : this.signatures) {
+            if (signature.length == 0) {
+                throw new IllegalArgumentException("Empty signature");
+            }
+            capacity += signature.length;
+            longest = Math.max(longest, signature.length);
+        }
+        this.maxLength = longest;
+        int[] table = new int[capacity * ALPHABET_SIZE];
+        Arrays.fill(table, -1);
+        int[] matches = new int[capacity];
+        Arrays.fill(matches, -1);
+        int stateCount = 1;
+        for (int i = 0; i < this.signatures.length; i++) {
+            int state = 0;
+            for (byte b : this.signatures[i]) {
+                int index = state * ALPHABET_SIZE + (b & 0xff);
+                if (table[index] == -1) {
+                    table[index] = stateCount++;
+                }
+                state = table[index];
+            }
+            if (matches[state] == -1) {
+                matches[state] = i;
+            }
+        }
+
+        // failure links, breadth first, folded into the table
+        int[] failure = new int[stateCount];
+        int[] nextOutputs = new int[stateCount];
+        int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        nextOutputs[0] = -1;
+        for (int c = 0; c < ALPHABET_SIZE; c++) {
+            int next = table[c];
+            if (next == -1) {
+                table[c] = 0;
+            } else {
+                failure[next] = 0;
+                nextOutputs[next] = -1;
+                queue[tail++] = next;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int c = 0; c < ALPHABET_SIZE; c++) {
+                int index = state * ALPHABET_SIZE + c;
+                int next = table[index];
+                int fallback = table[failure[state] * ALPHABET_SIZE + c];
+                if (next == -1) {
+                    table[index] = fallback;
+                } else {
+                    failure[next] = fallback;
+                    nextOutputs[next] = matches[fallback] != -1 ? fallback : nextOutputs[fallback];
+                    queue[tail++] = next;
+                }
+            }
+        }
+
+        this.transitions = Arrays.copyOf(table, stateCount * ALPHABET_SIZE);
+        this.match = Arrays.copyOf(matches, stateCount);
+        this.nextOutput = nextOutputs;
+        this.output = new int[stateCount];
+        for (int state = 0; state < stateCount; state++) {
+            output[state] = match[state] != -1 ? state : nextOutput[state];
+        }
+    }
+
+    /**
+     * Parses a list of hex signatures separated by commas or white space,
+     * such as "4d5a, 504b0304".
+     *
+     * @param text The signatures.
+     * @return The signatures as bytes, in the order given.
+     * @throws IllegalArgumentException If a signature is not an even number
+     * of hex digits.
+     */
+    static List<byte[]> parseSignatures(String text) {
+        List<byte[]> signatures = new ArrayList<byte[]>();
+        for (String hex : text.trim().split("[,\\s]+")) {
+            if (hex.isEmpty()) {
+                continue;
+            }
+            if (hex.length() % 2 != 0) {
+                throw new IllegalArgumentException("Odd number of hex digits in signature " + hex);
+            }
+            byte[] signature = new byte[hex.length() / 2];
+            for (int i = 0; i < signature.length; i++) {
+                int high = Character.digit(hex.charAt(2 * i), 16);
+                int low = Character.digit(hex.charAt(2 * i + 1), 16);
+                if (high < 0 || low < 0) {
+                    throw new IllegalArgumentException("Bad hex digit in signature " + hex);
+                }
+                signature[i] = (byte) ((high << 4) | low);
+            }
+            signatures.add(signature);
+        }
+        return signatures;
+    }
+
+    /**
+     * Gets a signature as lower case hex.
+     *
+     * @param signatureIndex The index of the signature.
+     * @return The hex string.
+     */
+    String toHex(int signatureIndex) {
+        return hexSignatures[signatureIndex];
+    }
+
+    int getSignatureCount() {
+        return signatures.length;
+    }
+
+    /**
+     * Gets the length of the longest signature, which is how far a scan must
+     * read past the end of a range to find every signature that starts in it.
+     *
+     * @return The longest signature length.
+     */
+    int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Feeds bytes through the automaton.
+     *
+     * @param buffer The bytes.
+     * @param length The number of bytes to scan from the start of the buffer.
+     * @param bufferOffset The offset in the data of the first byte.
+     * @param state The state returned by the previous call, or 0 at the start
+     * of the data.
+     * @param hitLimit Occurrences starting at or after this offset are not
+     * reported.
+     * @param listener Receives the occurrences.
+     * @return The state to pass to the next call.
+     */
+    int scan(byte[] buffer, int length, long bufferOffset, int state, long hitLimit, Listener listener) {
+        for (int i = 0; i < length; i++) {
+            state = transitions[(state << 8) | (buffer[i] & 0xff)];
+            for (int s = output[state]; s != -1; s = nextOutput[s]) {
+                int signatureIndex = match[s];
+                long offset = bufferOffset + i - signatures[signatureIndex].length + 1;
+                if (offset < hitLimit) {
+                    listener.signatureFound(signatureIndex, offset);
+                }
+            }
+        }
+        return state;
+    }
+}
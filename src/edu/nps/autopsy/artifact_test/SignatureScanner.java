@@ -0,0 +1,317 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.sleuthkit.datamodel.Content;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Scans the bytes of a Content for a set of signatures, in parallel over
+ * disjoint byte ranges.
+ * <p>
+ * The content is split into ranges that fork-join worker threads scan
+ * sequentially, chunk by chunk, into one buffer per worker thread, so nothing
+ * is allocated per chunk.  A range owns the occurrences that start in it; its
+ * scan reads up to one signature length past its end so that occurrences
+ * crossing into the next range are still found, and the automaton state is
+ * carried from chunk to chunk so that occurrences crossing chunks are found.
+ * <p>
+ * The scans of a scanner share one pool, started by the first scan, so that
+ * a content scanned in segments does not start new threads and buffers for
+ * each segment.  close() shuts the pool down.
+ */
+final class SignatureScanner {
+
+    // ranges per worker thread, so that fast workers can steal from slow ones
+    private static final int RANGES_PER_THREAD = 8;
+
+    private final SignatureAutomaton automaton;
+    private final int chunkSize;
+    private final int threadCount;
+    private final ThreadLocal<byte[]> buffers;
+
+    // guarded by this
+    private ForkJoinPool pool;
+
+    /**
+     * Receives the signatures found in a content.  Called from several
+     * threads at once.
+     */
+    interface Listener {
+
+        /**
+         * Called for each occurrence of a signature.
+         *
+         * @param signatureIndex The index of the signature in the automaton.
+         * @param offset The offset of the first byte of the occurrence.
+         * @throws TskCoreException If handling the occurrence fails; the scan
+         * stops.
+         */
+        void signatureFound(int signatureIndex, long offset) throws TskCoreException;
+    }
+
+    /**
+     * Tells the scan to stop early.
+     */
+    interface Cancellation {
+
+        boolean isCancelled();
+    }
+
+    /**
+     * Creates a scanner.
+     *
+     * @param automaton The signatures to find.
+     * @param chunkSize The number of bytes read at a time.
+     * @param threadCount The number of scanning threads, or 0 for one per
+     * processor.
+     */
+    SignatureScanner(SignatureAutomaton automaton, final int chunkSize, int threadCount) {
+        this.automaton = automaton;
+        this.chunkSize = chunkSize;
+        this.threadCount = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+        this.buffers = new ThreadLocal<byte[]>() {
+            @Override
+            protected byte[] initialValue() {
+                return new byte[chunkSize];
+            }
+        };
+    }
+
+    SignatureAutomaton getAutomaton() {
+        return automaton;
+    }
+
+    /**
+     * Gets the smallest range that one scan can split over every thread
+     * without ranges shorter than a chunk.  Callers that scan a content in
+     * steps use steps of this size.
+     *
+     * @return The size in bytes.
+     */
+    long getSegmentSize() {
+        return (long) chunkSize * threadCount * RANGES_PER_THREAD;
+    }
+
+    /**
+     * Scans a range of a content and waits for the scan to finish.
+     *
+     * @param content The content to scan.
+     * @param start The offset of the first byte to scan.
+     * @param end The offset after the last byte to scan.
+     * @param listener Receives the occurrences.
+     * @param cancellation Checked before each chunk.
+     * @param scannedBytes Incremented as bytes are scanned, for progress.
+     * @param progress Run on the calling thread a few times a second while
+     * the scan runs, to report progress.
+     * @throws TskCoreException If reading the content or the listener fails.
+     */
+    void scan(Content content, long start, long end, Listener listener, Cancellation cancellation,
+            AtomicLong scannedBytes, Runnable progress) throws TskCoreException {
+        AtomicReference<TskCoreException> failure = new AtomicReference<TskCoreException>();
+        try {
+            ForkJoinTask<Void> task = getPool().submit(new RangeTask(content, Math.min(end, content.getSize()), start, end,
+                    getRangeSize(start, end, threadCount), listener, cancellation, scannedBytes, failure));
+            while (!isDone(task)) {
+                progress.run();
+            }
+            task.get();
+        } catch (InterruptedException ex) {
+            // stop the workers rather than leave them scanning
+            Thread.currentThread().interrupt();
+            close();
+            throw new TskCoreException("Interrupted while scanning " + content.getName());
+        } catch (ExecutionException ex) {
+            throw new TskCoreException("Failed to scan " + content.getName(), ex.getCause());
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * Shuts down the threads of the scans.  A later scan starts new ones.
+     */
+    synchronized void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    private synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(threadCount);
+        }
+        return pool;
+    }
+
+    /**
+     * Scans a range of a content from a task running in a fork-join pool,
+     * splitting the range over the workers of that pool rather than starting
+     * a pool of its own.  Lets a caller that already works in a pool, such
+     * as a {@link ContentTraversal} visitor, scan large contents in parallel.
+     *
+     * @param content The content to scan.
+     * @param start The offset of the first byte to scan.
+     * @param end The offset after the last byte to scan.
+     * @param listener Receives the occurrences.
+     * @param cancellation Checked before each chunk.
+     * @param scannedBytes Incremented as bytes are scanned, for progress.
+     * @throws TskCoreException If reading the content or the listener fails.
+     */
+    void scanInPool(Content content, long start, long end, Listener listener, Cancellation cancellation,
+            AtomicLong scannedBytes) throws TskCoreException {
+        ForkJoinPool pool = ForkJoinTask.getPool();
+        if (pool == null || end - start <= chunkSize) {
+            // not in a pool, or too small to split
+            scanRange(content, start, end, listener, cancellation, scannedBytes);
+            return;
+        }
+        AtomicReference<TskCoreException> failure = new AtomicReference<TskCoreException>();
+        new RangeTask(content, Math.min(end, content.getSize()), start, end,
+                getRangeSize(start, end, pool.getParallelism()),
+                listener, cancellation, scannedBytes, failure).invoke();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * Scans a range of a content on the calling thread.
+     *
+     * @param content The content to scan.
+     * @param start The offset of the first byte whose occurrences are
+     * reported.
+     * @param end The offset after the last byte whose occurrences are
+     * reported.
+     * @param listener Receives the occurrences.
+     * @param cancellation Checked before each chunk.
+     * @param scannedBytes Incremented as bytes are scanned, for progress.
+     * @throws TskCoreException If reading the content or the listener fails.
+     */
+    void scanRange(Content content, long start, long end, final Listener listener, Cancellation cancellation,
+            AtomicLong scannedBytes) throws TskCoreException {
+        final TskCoreException[] listenerFailure = new TskCoreException[1];
+        SignatureAutomaton.Listener hits = new SignatureAutomaton.Listener() {
+            @Override
+            public void signatureFound(int signatureIndex, long offset) {
+                if (listenerFailure[0] == null) {
+                    try {
+                        listener.signatureFound(signatureIndex, offset);
+                    } catch (TskCoreException ex) {
+                        listenerFailure[0] = ex;
+                    }
+                }
+            }
+        };
+
+        byte[] buffer = buffers.get();
+        long windowEnd = Math.min(content.getSize(), end + automaton.getMaxLength() - 1);
+        int state = 0;
+        long offset = start;
+        while (offset < windowEnd && !cancellation.isCancelled()) {
+            int read = content.read(buffer, offset, Math.min(buffer.length, windowEnd - offset));
+            if (read <= 0) {
+                // the content is shorter than it claims
+                break;
+            }
+            state = automaton.scan(buffer, read, offset, state, end, hits);
+            if (listenerFailure[0] != null) {
+                throw listenerFailure[0];
+            }
+            scannedBytes.addAndGet(Math.max(0, Math.min(read, end - offset)));
+            offset += read;
+        }
+    }
+
+    // split a range into a few ranges of whole chunks per thread
+    private long getRangeSize(long start, long end, int threads) {
+        long rangeSize = Math.max(chunkSize, (end - start) / ((long) threads * RANGES_PER_THREAD));
+        return (rangeSize + chunkSize - 1) / chunkSize * chunkSize;
+    }
+
+    // wait a moment for a scan to finish
+    private static boolean isDone(ForkJoinTask<?> task) throws InterruptedException {
+        try {
+            task.get(250, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException ex) {
+            return false;
+        } catch (ExecutionException ex) {
+            return true;
+        }
+    }
+
+    // splits its range in two until it is small enough to scan
+    private final class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Content content;
+        private final long size;
+        private final long start;
+        private final long end;
+        private final long rangeSize;
+        private final Listener listener;
+        private final Cancellation cancellation;
+        private final AtomicLong scannedBytes;
+        private final AtomicReference<TskCoreException> failure;
+
+        RangeTask(Content content, long size, long start, long end, long rangeSize, Listener listener,
+                Cancellation cancellation, AtomicLong scannedBytes, AtomicReference<TskCoreException> failure) {
+            this.content = content;
+            this.size = size;
+            this.start = start;
+            this.end = end;
+            this.rangeSize = rangeSize;
+            this.listener = listener;
+            this.cancellation = cancellation;
+            this.scannedBytes = scannedBytes;
+            this.failure = failure;
+        }
+
+        @Override
+        protected void compute() {
+            if (start >= Math.min(end, size) || failure.get() != null || cancellation.isCancelled()) {
+                return;
+            }
+            if (end - start <= rangeSize) {
+                try {
+                    scanRange(content, start, end, listener, cancellation, scannedBytes);
+                } catch (TskCoreException ex) {
+                    failure.compareAndSet(null, ex);
+                }
+                return;
+            }
+            long middle = start + (end - start) / 2 / chunkSize * chunkSize;
+            if (middle <= start) {
+                middle = start + chunkSize;
+            }
+            invokeAll(new RangeTask(content, size, start, middle, rangeSize, listener, cancellation, scannedBytes, failure),
+                    new RangeTask(content, size, middle, end, rangeSize, listener, cancellation, scannedBytes, failure));
+        }
+    }
+}
@@ -0,0 +1,279 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An attribute value template, compiled once per ingest job.
+ * <p>
+ * A template is literal text with these placeholders:
+ * <pre>
+ * {name}      hello attribute, then the artifact index if it is not 0 and
+ *             /the attribute index if it is not 0
+ * {artifact}  the artifact index
+ * {attribute} the attribute index within the artifact
+ * {time}      when the ingest job started
+ * {now}       the current time
+ * </pre>
+ * Times are formatted with a DateTimeFormatter pattern.  The default template
+ * and time format give the values the module has always written.
+ * <p>
+ * A compiled template is immutable and shared by the generator threads.  It
+ * appends values to a caller's StringBuilder, so a generator that reuses its
+ * builder makes no garbage but the finished value.  {now} is formatted at
+ * most once per second of the clock when the time format has no field finer
+ * than seconds, and every time otherwise.
+ * <p>
+ * The identity of a value is what is left of it without its times and
+ * padding, so that values written by the same template at other times are
+ * the same artifact.
+ */
+final class ValueTemplate {
+
+    static final String DEFAULT_TEMPLATE = "{name} at {time}";
+    static final String DEFAULT_TIME_FORMAT = "MM-dd-yy-HH-mm-ss";
+
+    private static final String NAME = "hello attribute";
+
+    // what each part of the template appends
+    private static final int LITERAL = 0;
+    private static final int NAME_PART = 1;
+    private static final int ARTIFACT_PART = 2;
+    private static final int ATTRIBUTE_PART = 3;
+    private static final int TIME_PART = 4;
+    private static final int NOW_PART = 5;
+
+    private final String template;
+    private final int[] kinds;
+    private final String[] literals;
+    private final DateTimeFormatter formatter;
+    private final boolean cacheNow;
+    private final String startTime;
+    private final char[] padding;
+
+    // matches a value of the template, with a group for each part that is
+    // not a time
+    private final Pattern identity;
+
+    // the formatted current time and the second it is for, replaced together
+    private volatile CachedTime now = new CachedTime(Long.MIN_VALUE, null);
+
+    private static final class CachedTime {
+
+        private final long epochSecond;
+        private final String text;
+
+        CachedTime(long epochSecond, String text) {
+            this.epochSecond = epochSecond;
+            this.text = text;
+        }
+    }
+
+    private ValueTemplate(String template, List<Integer> kinds, List<String> literals, DateTimeFormatter formatter,
+            long startMillis, int payloadSize) {
+        this.template = template;
+        this.kinds = new int[kinds.size()];
+        for (int i = 0; i < this.kinds.length; i++) {
+            this.kinds[i] = kinds.get(i);
+        }
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.formatter = formatter;
+        this.cacheNow = formatter.format(Instant.ofEpochSecond(0)).equals(formatter.format(Instant.ofEpochSecond(0, 999999999)));
+        this.startTime = formatter.format(Instant.ofEpochMilli(startMillis));
+        this.padding = new char[payloadSize];
+        Arrays.fill(padding, 'x');
+        this.identity = toIdentityPattern(this.kinds, this.literals);
+    }
+
+    /**
+     * Compiles a template.
+     *
+     * @param template The template.
+     * @param timeFormat The DateTimeFormatter pattern of the times.
+     * @param startMillis The time {time} stands for.
+     * @param payloadSize The length values are padded to with x, or 0.
+     * @return The compiled template.
+     * @throws IllegalArgumentException If the template has an unknown or
+     * unclosed placeholder, or the time format is bad.
+     */
+    static ValueTemplate compile(String template, String timeFormat, long startMillis, int payloadSize) {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern(timeFormat).withZone(ZoneId.systemDefault());
+        List<Integer> kinds = new ArrayList<Integer>();
+        List<String> literals = new ArrayList<String>();
+        int position = 0;
+        while (position < template.length()) {
+            int open = template.indexOf('{', position);
+            if (open < 0) {
+                open = template.length();
+            }
+            if (open > position) {
+                kinds.add(LITERAL);
+                literals.add(template.substring(position, open));
+            }
+            if (open == template.length()) {
+                break;
+            }
+            int close = template.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder in value template: " + template);
+            }
+            kinds.add(toKind(template.substring(open + 1, close)));
+            literals.add(null);
+            position = close + 1;
+        }
+        return new ValueTemplate(template, kinds, literals, formatter, startMillis, payloadSize);
+    }
+
+    private static int toKind(String placeholder) {
+        switch (placeholder) {
+            case "name":
+                return NAME_PART;
+            case "artifact":
+                return ARTIFACT_PART;
+            case "attribute":
+                return ATTRIBUTE_PART;
+            case "time":
+                return TIME_PART;
+            case "now":
+                return NOW_PART;
+            default:
+                throw new IllegalArgumentException("Unknown placeholder in value template: {" + placeholder + "}");
+        }
+    }
+
+    // each part that is not a time is a group; the padding is matched
+    // possessively, so a time never takes padding from it
+    private static Pattern toIdentityPattern(int[] kinds, String[] literals) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < kinds.length; i++) {
+            switch (kinds[i]) {
+                case LITERAL:
+                    regex.append('(').append(Pattern.quote(literals[i])).append(')');
+                    break;
+                case NAME_PART:
+                    regex.append('(').append(Pattern.quote(NAME)).append("(?: -?\\d+)?(?:/-?\\d+)?)");
+                    break;
+                case ARTIFACT_PART:
+                case ATTRIBUTE_PART:
+                    regex.append("(-?\\d+)");
+                    break;
+                default:
+                    regex.append(".*?");
+                    break;
+            }
+        }
+        return Pattern.compile(regex.append("x*+").toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * Gets the template this was compiled from.
+     *
+     * @return The template.
+     */
+    String getTemplate() {
+        return template;
+    }
+
+    /**
+     * Gets the identity of a value: the value without its times and
+     * padding.
+     *
+     * @param value The value.
+     * @return The identity, or the value itself if it was not made from this
+     * template.
+     */
+    String toIdentity(String value) {
+        Matcher matcher = identity.matcher(value);
+        if (!matcher.matches()) {
+            return value;
+        }
+        StringBuilder kept = new StringBuilder();
+        for (int i = 1; i <= matcher.groupCount(); i++) {
+            kept.append(matcher.group(i));
+        }
+        return kept.toString();
+    }
+
+    /**
+     * Appends the value of an attribute, padded to the payload size.
+     *
+     * @param value Where to append the value; it is not cleared first.
+     * @param artifactIndex The index of the artifact in the data source.
+     * @param attributeIndex The index of the attribute in the artifact.
+     * @return The builder.
+     */
+    StringBuilder appendTo(StringBuilder value, int artifactIndex, int attributeIndex) {
+        int start = value.length();
+        for (int i = 0; i < kinds.length; i++) {
+            switch (kinds[i]) {
+                case LITERAL:
+                    value.append(literals[i]);
+                    break;
+                case NAME_PART:
+                    value.append(NAME);
+                    if (artifactIndex != 0) {
+                        value.append(' ').append(artifactIndex);
+                    }
+                    if (attributeIndex != 0) {
+                        value.append('/').append(attributeIndex);
+                    }
+                    break;
+                case ARTIFACT_PART:
+                    value.append(artifactIndex);
+                    break;
+                case ATTRIBUTE_PART:
+                    value.append(attributeIndex);
+                    break;
+                case TIME_PART:
+                    value.append(startTime);
+                    break;
+                default:
+                    value.append(now());
+                    break;
+            }
+        }
+        int missing = padding.length - (value.length() - start);
+        if (missing > 0) {
+            value.append(padding, 0, missing);
+        }
+        return value;
+    }
+
+    // the current time, formatted again only when the second changes if
+    // the format has no finer field
+    private String now() {
+        long millis = System.currentTimeMillis();
+        if (!cacheNow) {
+            return formatter.format(Instant.ofEpochMilli(millis));
+        }
+        long epochSecond = Math.floorDiv(millis, 1000);
+        CachedTime cached = now;
+        if (cached.epochSecond != epochSecond) {
+            cached = new CachedTime(epochSecond, formatter.format(Instant.ofEpochSecond(epochSecond)));
+            now = cached;
+        }
+        return cached.text;
+    }
+}
@@ -0,0 +1,420 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.datamodel.BlackboardAttribute;
+import org.sleuthkit.datamodel.Content;
+import org.sleuthkit.datamodel.SleuthkitCase;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * A bounded queue of blackboard artifacts that one writer thread per case
+ * writes to the case database, so ingest threads do not wait on the database.
+ * <p>
+ * Ingest jobs get a JobWriter from the queue of their case.  Adding to a full
+ * queue blocks the ingest thread until the writer thread catches up.  Closing
+ * a JobWriter waits until every artifact of that job has been written and
+ * then reports the write errors of that job, and only that job.
+ * <p>
+ * Jobs take turns from the write scheduler of the case to queue their
+ * artifacts, so that one job filling the queue does not shut the others out.
+ * A job gives back its turn before it waits for room, so a waiting job does
+ * not hold up the others either.  The writer thread takes the turn of a job
+ * for each run of artifacts of that job it writes, and it is those turns that
+ * are charged, so write-behind jobs share the writes with inline jobs by
+ * priority too.
+ * <p>
+ * The queues are stopped when the current case changes; artifacts still
+ * queued then fail their jobs.
+ */
+final class WriteBehindQueue {
+
+    private static final Logger logger = Logger.getLogger(WriteBehindQueue.class.getName());
+    private static final ConcurrentMap<SleuthkitCase, WriteBehindQueue> queues
+            = new ConcurrentHashMap<SleuthkitCase, WriteBehindQueue>();
+
+    private static final PropertyChangeListener caseListener = new PropertyChangeListener() {
+        @Override
+        public void propertyChange(PropertyChangeEvent event) {
+            if (Case.Events.CURRENT_CASE.toString().equals(event.getPropertyName())) {
+                stopAll();
+            }
+        }
+    };
+
+    private final SleuthkitCase sleuthkitCase;
+    private final BlockingQueue<Entry> queue;
+    private final int batchSize;
+    private final Thread writerThread;
+    private volatile boolean stopped;
+
+    // an artifact and the job it belongs to
+    private static final class Entry {
+
+        private final JobWriter job;
+        private final ArtifactRecord record;
+
+        Entry(JobWriter job, ArtifactRecord record) {
+            this.job = job;
+            this.record = record;
+        }
+    }
+
+    private WriteBehindQueue(SleuthkitCase sleuthkitCase, int capacity, int batchSize) {
+        this.sleuthkitCase = sleuthkitCase;
+        this.queue = new ArrayBlockingQueue<Entry>(capacity);
+        this.batchSize = batchSize;
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "ArtifactTest-writer");
+        this.writerThread.setDaemon(true);
+    }
+
+    /**
+     * Starts stopping the queues when the current case changes.
+     */
+    static void startListening() {
+        Case.addPropertyChangeListener(caseListener);
+    }
+
+    /**
+     * Stops listening for case changes.
+     */
+    static void stopListening() {
+        Case.removePropertyChangeListener(caseListener);
+    }
+
+    /**
+     * Gets the queue of a case, starting it if it is not running.  The
+     * capacity and batch size of the first caller are used for the life of the
+     * queue.
+     *
+     * @param sleuthkitCase The case database.
+     * @param capacity The most artifacts the queue holds.
+     * @param batchSize The most artifacts written under one lock.
+     * @return The queue.
+     */
+    static WriteBehindQueue forCase(SleuthkitCase sleuthkitCase, int capacity, int batchSize) {
+        WriteBehindQueue writeBehindQueue = queues.get(sleuthkitCase);
+        if (writeBehindQueue == null) {
+            WriteBehindQueue newQueue = new WriteBehindQueue(sleuthkitCase, capacity, batchSize);
+            writeBehindQueue = queues.putIfAbsent(sleuthkitCase, newQueue);
+            if (writeBehindQueue == null) {
+                writeBehindQueue = newQueue;
+                writeBehindQueue.writerThread.start();
+            }
+        }
+        return writeBehindQueue;
+    }
+
+    // stop every queue, failing what is still queued
+    static void stopAll() {
+        for (SleuthkitCase sleuthkitCase : queues.keySet()) {
+            WriteBehindQueue writeBehindQueue = queues.remove(sleuthkitCase);
+            if (writeBehindQueue != null) {
+                writeBehindQueue.stop();
+            }
+        }
+    }
+
+    /**
+     * Opens a writer for one ingest job.
+     *
+     * @param jobId The ID of the ingest job.
+     * @param artifactTypeID The type of the artifacts of the job.
+     * @param metrics Where to record the latencies of the writes of the job.
+     * @param share The share of the writes of the case of the job, which the
+     * writer closes when it is closed.
+     * @return The writer.
+     */
+    JobWriter openJob(long jobId, int artifactTypeID, IngestJobMetrics metrics, WriteScheduler.JobShare share) {
+        return new JobWriter(jobId, artifactTypeID, metrics, share);
+    }
+
+    private void stop() {
+        stopped = true;
+        writerThread.interrupt();
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<Entry>(batchSize);
+        try {
+            while (!stopped) {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+                writeBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException ex) {
+            // stopped
+        }
+
+        for (Entry entry : batch) {
+            entry.job.written(entry.record, new TskCoreException("The case was closed before the artifact was written"));
+        }
+        failQueued();
+    }
+
+    // fail whatever is queued on a stopped queue, since it will never be written
+    private void failQueued() {
+        List<Entry> unwritten = new ArrayList<Entry>();
+        queue.drainTo(unwritten);
+        for (Entry entry : unwritten) {
+            entry.job.written(entry.record, new TskCoreException("The case was closed before the artifact was written"));
+        }
+    }
+
+    // write the batch a run of artifacts of one job at a time, each in a
+    // turn of that job; if the wait for a turn is interrupted, the queue is
+    // stopping and the rest of the batch fails
+    private void writeBatch(List<Entry> batch) {
+        int runStart = 0;
+        while (runStart < batch.size()) {
+            JobWriter job = batch.get(runStart).job;
+            int runEnd = runStart + 1;
+            while (runEnd < batch.size() && batch.get(runEnd).job == job) {
+                runEnd++;
+            }
+            try {
+                job.share.acquire(runEnd - runStart);
+            } catch (TskCoreException ex) {
+                for (Entry entry : batch.subList(runStart, batch.size())) {
+                    entry.job.written(entry.record, ex);
+                }
+                return;
+            }
+            long startNanos = System.nanoTime();
+            sleuthkitCase.acquireExclusiveLock();
+            try {
+                for (Entry entry : batch.subList(runStart, runEnd)) {
+                    TskCoreException error = null;
+                    try {
+                        entry.record.write(job.artifactTypeID, job.metrics);
+                    } catch (TskCoreException ex) {
+                        error = ex;
+                    }
+                    job.written(entry.record, error);
+                }
+            } finally {
+                sleuthkitCase.releaseExclusiveLock();
+                job.share.release();
+            }
+            job.metrics.batchWrite.recordSince(startNanos);
+            runStart = runEnd;
+        }
+    }
+
+    /**
+     * The part of a write-behind queue used by one ingest job.
+     */
+    final class JobWriter implements ArtifactSink {
+
+        private final long jobId;
+        private final int artifactTypeID;
+        private final IngestJobMetrics metrics;
+        private final WriteScheduler.JobShare share;
+
+        // guarded by this
+        // artifacts queued and artifacts written or failed; the queue is
+        // first in first out, so once handledCount reaches the queuedCount of
+        // some moment, everything queued before that moment has been handled
+        private long queuedCount;
+        private long handledCount;
+        private long artifactCount;
+        private long attributeCount;
+        private long errorCount;
+        private long backpressureCount;
+        private TskCoreException firstError;
+
+        private JobWriter(long jobId, int artifactTypeID, IngestJobMetrics metrics, WriteScheduler.JobShare share) {
+            this.jobId = jobId;
+            this.artifactTypeID = artifactTypeID;
+            this.metrics = metrics;
+            this.share = share;
+        }
+
+        /**
+         * Queues an artifact, waiting for room if the queue is full.
+         *
+         * @param content The content the artifact belongs to.
+         * @param attributes The attributes of the artifact.
+         * @throws TskCoreException If the queue is stopped or the wait is
+         * interrupted.
+         */
+        @Override
+        public void add(Content content, Collection<BlackboardAttribute> attributes) throws TskCoreException {
+            addAll(Collections.singletonList(new ArtifactRecord(content, attributes)));
+        }
+
+        /**
+         * Queues artifacts, waiting for room if the queue is full.
+         *
+         * @param records The artifacts.
+         * @throws TskCoreException If the queue is stopped or the wait is
+         * interrupted.
+         */
+        @Override
+        public void addAll(List<ArtifactRecord> records) throws TskCoreException {
+            int next = 0;
+            while (next < records.size()) {
+                if (stopped) {
+                    throw new TskCoreException("The write-behind queue of the case is stopped");
+                }
+
+                // take a turn to queue what there is room for, and give it
+                // back before waiting for more room; the turn is charged
+                // when the writer thread writes the artifacts
+                share.acquire(0);
+                Entry blocked = null;
+                try {
+                    for (; next < records.size(); next++) {
+                        if (stopped) {
+                            throw new TskCoreException("The write-behind queue of the case is stopped");
+                        }
+                        Entry entry = new Entry(this, records.get(next));
+                        synchronized (this) {
+                            queuedCount++;
+                        }
+                        if (!queue.offer(entry)) {
+                            blocked = entry;
+                            break;
+                        }
+                    }
+                } finally {
+                    share.release();
+                }
+                if (blocked != null) {
+                    put(blocked);
+                    next++;
+                }
+            }
+        }
+
+        // backpressure: wait for the writer thread to make room, or for the
+        // queue to stop, after which nothing takes from it
+        private void put(Entry entry) throws TskCoreException {
+            synchronized (this) {
+                backpressureCount++;
+            }
+            try {
+                while (!queue.offer(entry, 100, TimeUnit.MILLISECONDS)) {
+                    if (stopped) {
+                        written(entry.record, new TskCoreException("The write-behind queue of the case is stopped"));
+                        throw firstError();
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                written(entry.record, new TskCoreException("Interrupted while waiting for room in the write-behind queue"));
+                throw firstError();
+            }
+        }
+
+        /**
+         * Waits until the writer thread has written every artifact this job
+         * queued before the call.  Artifacts the job queues while it waits
+         * do not hold it up, so a flush ends even while the job keeps adding.
+         *
+         * @throws TskCoreException If any artifact of this job failed, or the
+         * wait is interrupted.
+         */
+        @Override
+        public void flush() throws TskCoreException {
+            long target;
+            synchronized (this) {
+                target = queuedCount;
+            }
+            try {
+                while (true) {
+                    // queued after the writer thread stopped; failQueued
+                    // calls written() of other jobs, so it is called without
+                    // holding the monitor of this one
+                    if (stopped && !writerThread.isAlive()) {
+                        failQueued();
+                    }
+                    synchronized (this) {
+                        if (handledCount >= target) {
+                            break;
+                        }
+                        wait(1000);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new TskCoreException("Interrupted while waiting for the write-behind queue of ingest job " + jobId);
+            }
+            synchronized (this) {
+                if (firstError != null) {
+                    throw firstError();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws TskCoreException {
+            try {
+                flush();
+            } finally {
+                logger.log(Level.INFO, getSummary());
+                share.close();
+            }
+        }
+
+        @Override
+        public synchronized String getSummary() {
+            return String.format("ingest job %d: wrote %d artifacts (%d attributes) behind the ingest thread, %d failed, waited for queue room %d times, %s",
+                    jobId, artifactCount, attributeCount, errorCount, backpressureCount, share.getSummary());
+        }
+
+        // called by the writer thread once an artifact has been handled
+        private synchronized void written(ArtifactRecord record, TskCoreException error) {
+            if (error == null) {
+                artifactCount++;
+                attributeCount += record.getAttributes().size();
+            } else {
+                errorCount++;
+                if (firstError == null) {
+                    firstError = error;
+                    logger.log(Level.SEVERE, "Failed to write blackboard artifact for ingest job " + jobId, error);
+                }
+            }
+            handledCount++;
+            notifyAll();
+        }
+
+        private synchronized TskCoreException firstError() {
+            return new TskCoreException(String.format("%d blackboard artifacts of ingest job %d were not written", errorCount, jobId), firstError);
+        }
+    }
+}
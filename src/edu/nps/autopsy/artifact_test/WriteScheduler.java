@@ -0,0 +1,270 @@
+// The software provided here is released by the Naval Postgraduate
+// School, an agency of the U.S. Department of Navy.  The software
+// bears no warranty, either expressed or implied. NPS does not assume
+// legal liability nor responsibility for a User's use of the software
+// or the results of such use.
+//
+// Please note that within the United States, copyright protection,
+// under Section 105 of the United States Code, Title 17, is not
+// available for any work of the United States Government and/or for
+// any works created by United States Government employees. User
+// acknowledges that this software contains work which was created by
+// NPS government employees and is therefore in the public domain and
+// not subject to copyright.
+//
+// Released into the public domain on April 28, 2015 by Bruce Allen.
+
+package edu.nps.autopsy.artifact_test;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.datamodel.SleuthkitCase;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Shares the blackboard writes of a case fairly among the ingest jobs that
+ * run in it at the same time.
+ * <p>
+ * Each job takes a turn before it writes a batch of artifacts and gives it
+ * back when the batch is written, and one job has the turn at a time.  Turns
+ * are given by start-time fair queuing: a turn of n artifacts costs the job
+ * n / priority of virtual time, and the waiting turn that starts earliest in
+ * virtual time goes next.  While jobs keep writing, each gets a share of the
+ * writes in proportion to its priority, so a job with priority 40 writes four
+ * artifacts for every one of a job with priority 10.  A job that stops
+ * writing does not save up turns for later, so a small triage job started
+ * next to a large image gets its share of the writes at once.
+ * <p>
+ * A job has one share however many sinks it opens, so that all of its writes
+ * are charged to the same virtual time.  Jobs that write inline take their
+ * turns around each batch.  The write-behind writer thread takes a turn for
+ * each run of artifacts of one job that it writes, charged to that job, so
+ * the priorities hold between jobs in either mode; the turns a write-behind
+ * job takes to queue its artifacts cost nothing and only keep the queue
+ * fair.
+ * <p>
+ * The schedulers are dropped when the current case changes.
+ */
+final class WriteScheduler {
+
+    static final int MIN_PRIORITY = 1;
+    static final int MAX_PRIORITY = 100;
+    static final int DEFAULT_PRIORITY = 10;
+
+    private static final ConcurrentMap<SleuthkitCase, WriteScheduler> schedulers
+            = new ConcurrentHashMap<SleuthkitCase, WriteScheduler>();
+
+    private static final PropertyChangeListener caseListener = new PropertyChangeListener() {
+        @Override
+        public void propertyChange(PropertyChangeEvent event) {
+            if (Case.Events.CURRENT_CASE.toString().equals(event.getPropertyName())) {
+                schedulers.clear();
+            }
+        }
+    };
+
+    // guarded by this
+    private final Map<Long, JobShare> jobs = new HashMap<Long, JobShare>();
+    private final PriorityQueue<Turn> waiting = new PriorityQueue<Turn>();
+    private double virtualTime;
+    private boolean busy;
+    private long turnCount;
+
+    // a turn waiting to be given, ordered by virtual start time, then arrival
+    private static final class Turn implements Comparable<Turn> {
+
+        private final double start;
+        private final long sequence;
+        private boolean given;
+
+        Turn(double start, long sequence) {
+            this.start = start;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Turn other) {
+            int order = Double.compare(start, other.start);
+            return order != 0 ? order : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private WriteScheduler() {
+    }
+
+    /**
+     * Starts dropping the schedulers when the current case changes.
+     */
+    static void startListening() {
+        Case.addPropertyChangeListener(caseListener);
+    }
+
+    /**
+     * Stops listening for case changes.
+     */
+    static void stopListening() {
+        Case.removePropertyChangeListener(caseListener);
+    }
+
+    /**
+     * Gets the scheduler of a case.
+     *
+     * @param sleuthkitCase The case database.
+     * @return The scheduler.
+     */
+    static WriteScheduler forCase(SleuthkitCase sleuthkitCase) {
+        WriteScheduler scheduler = schedulers.get(sleuthkitCase);
+        if (scheduler == null) {
+            WriteScheduler newScheduler = new WriteScheduler();
+            scheduler = schedulers.putIfAbsent(sleuthkitCase, newScheduler);
+            if (scheduler == null) {
+                scheduler = newScheduler;
+            }
+        }
+        return scheduler;
+    }
+
+    /**
+     * Gets the share of the writes of the case of an ingest job, creating it
+     * if the job has none open.  Every call must be followed by one call to
+     * JobShare.close().
+     *
+     * @param jobId The ID of the ingest job.
+     * @param priority The weight of the share, from MIN_PRIORITY to
+     * MAX_PRIORITY; ignored if the job already has a share open.
+     * @return The share.
+     */
+    synchronized JobShare openJob(long jobId, int priority) {
+        JobShare share = jobs.get(jobId);
+        if (share == null) {
+            share = new JobShare(jobId, Math.max(MIN_PRIORITY, Math.min(MAX_PRIORITY, priority)));
+            jobs.put(jobId, share);
+        }
+        share.openCount++;
+        return share;
+    }
+
+    // drop the share of a job once it is closed as often as it was opened
+    private synchronized void close(JobShare share) {
+        if (--share.openCount == 0) {
+            jobs.remove(share.jobId);
+        }
+    }
+
+    // wait for the turn of a job
+    private synchronized void acquire(JobShare job, int cost) throws InterruptedException {
+        double start = Math.max(virtualTime, job.finish);
+        job.finish = start + cost / (double) job.priority;
+        if (!busy) {
+            busy = true;
+            virtualTime = start;
+            return;
+        }
+        Turn turn = new Turn(start, turnCount++);
+        waiting.add(turn);
+        try {
+            while (!turn.given) {
+                wait();
+            }
+        } catch (InterruptedException ex) {
+            if (turn.given) {
+                // pass on the turn this thread will not take
+                release();
+            } else {
+                waiting.remove(turn);
+            }
+            throw ex;
+        }
+    }
+
+    // give the next turn, if any is waiting
+    private synchronized void release() {
+        Turn next = waiting.poll();
+        if (next == null) {
+            busy = false;
+            return;
+        }
+        next.given = true;
+        virtualTime = next.start;
+        notifyAll();
+    }
+
+    /**
+     * The share of the writes of a case of one ingest job.
+     */
+    final class JobShare {
+
+        private final long jobId;
+        private final int priority;
+
+        // guarded by the scheduler: virtual time the last turn of the job
+        // ends, and the number of times the share is open
+        private double finish;
+        private int openCount;
+
+        // guarded by this
+        private long turns;
+        private long waitNanos;
+
+        private JobShare(long jobId, int priority) {
+            this.jobId = jobId;
+            this.priority = priority;
+        }
+
+        /**
+         * Waits for the turn of the job to write.  Every call must be
+         * followed by one call to release().
+         *
+         * @param artifactCount The number of artifacts to write in the turn,
+         * or 0 for a turn that is charged when its artifacts are written.
+         * @throws TskCoreException If the wait is interrupted.
+         */
+        void acquire(int artifactCount) throws TskCoreException {
+            long startNanos = System.nanoTime();
+            try {
+                WriteScheduler.this.acquire(this, artifactCount);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new TskCoreException("Interrupted while waiting to write the artifacts of ingest job " + jobId);
+            }
+            synchronized (this) {
+                turns++;
+                waitNanos += System.nanoTime() - startNanos;
+            }
+        }
+
+        /**
+         * Ends the turn of the job.
+         */
+        void release() {
+            WriteScheduler.this.release();
+        }
+
+        /**
+         * Closes the share once for each time it was opened.
+         */
+        void close() {
+            WriteScheduler.this.close(this);
+        }
+
+        int getPriority() {
+            return priority;
+        }
+
+        /**
+         * Gets a one line summary of how long the job waited for its turns.
+         *
+         * @return The summary.
+         */
+        synchronized String getSummary() {
+            return String.format("write priority %d, waited %.1f ms for %d write turns",
+                    priority, waitNanos / 1.0e6, turns);
+        }
+    }
+}